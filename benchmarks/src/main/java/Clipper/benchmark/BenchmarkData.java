@@ -0,0 +1,43 @@
+package Clipper.benchmark;
+
+import Clipper.model.ClipboardEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// ベンチマーク用に、件数だけを変えた同じ傾向の履歴を作る
+final class BenchmarkData {
+
+  // WORDSのうち1語なので、約1/8のエントリに一致する
+  static final String SEARCH_QUERY = "kiwi";
+  static final String MISSING_QUERY = "no-such-word";
+
+  private static final String[] WORDS = { "apple", "banana", "cherry", "grape", "kiwi", "lemon", "mango", "peach" };
+  private static final long HISTORY_SPAN_MILLIS = 30L * 24 * 60 * 60 * 1000;
+  // 50件に1件をお気に入りにする
+  private static final int FAVORITE_INTERVAL = 50;
+
+  private BenchmarkData() {
+  }
+
+  static String text(long i) {
+    return "clipboard entry " + i + " " + WORDS[(int) (i % WORDS.length)] + " https://example.com/items/" + i;
+  }
+
+  // 既存の履歴と重ならない、新しくコピーされた内容
+  static String capturedText(long i) {
+    return "captured " + i + " " + WORDS[(int) (i % WORDS.length)];
+  }
+
+  // 直近30日に均等に散らばったsize件（新しい順）
+  static List<ClipboardEntry> entries(int size) {
+    long now = System.currentTimeMillis();
+    long step = Math.max(1, HISTORY_SPAN_MILLIS / size);
+    List<ClipboardEntry> entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(new ClipboardEntry(UUID.randomUUID().toString(), now - i * step, i % FAVORITE_INTERVAL == 0, text(i)));
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,69 @@
+package Clipper.benchmark;
+
+import Clipper.model.ClipboardData;
+import Clipper.model.ClipboardEntry;
+import Clipper.model.RetentionPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 取り込み（addEntry）のレイテンシと、検索・日付別表示の処理量
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g", "-Dclipper.log.level=WARN" })
+public class ClipboardDataBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  private int size;
+
+  private ClipboardData clipboardData;
+  private long captured;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // 件数上限を履歴の件数にしておき、追加のたびに最古の1件が追い出される定常状態を測る
+    clipboardData = new ClipboardData(new RetentionPolicy(size, 0, 0));
+    clipboardData.loadEntries(BenchmarkData.entries(size));
+  }
+
+  @Benchmark
+  public ClipboardEntry addEntry() {
+    return clipboardData.addEntry(BenchmarkData.capturedText(captured++));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public List<ClipboardEntry> searchEntries() {
+    return clipboardData.searchEntries(BenchmarkData.SEARCH_QUERY);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public List<ClipboardEntry> searchEntriesNoMatch() {
+    return clipboardData.searchEntries(BenchmarkData.MISSING_QUERY);
+  }
+
+  @Benchmark
+  public Map<LocalDate, List<ClipboardEntry>> getEntriesGroupedByDate() {
+    return clipboardData.getEntriesGroupedByDate();
+  }
+}
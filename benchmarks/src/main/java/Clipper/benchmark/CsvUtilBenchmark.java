@@ -0,0 +1,51 @@
+package Clipper.benchmark;
+
+import Clipper.util.CsvUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 履歴ファイル1行分の解析と、フィールドのエスケープ
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvUtilBenchmark {
+
+  private String plainLine = "3f2b6c1e-8d4a-4e59-9a57-2c1d0b7e6f11,2026-10-18 09:15:42,false,default,"
+      + "clipboard entry 42 kiwi https://example.com/items/42";
+  private String quotedLine = "3f2b6c1e-8d4a-4e59-9a57-2c1d0b7e6f11,2026-10-18 09:15:42,true,default,"
+      + "\"SELECT id, name FROM users WHERE name = \"\"kiwi\"\"\"";
+  private String plainField = "clipboard entry 42 kiwi https://example.com/items/42";
+  private String quotedField = "SELECT id, name FROM users WHERE name = \"kiwi\"";
+
+  @Benchmark
+  public String[] parseCsvLinePlain() {
+    return CsvUtil.parseCsvLine(plainLine);
+  }
+
+  @Benchmark
+  public String[] parseCsvLineQuoted() {
+    return CsvUtil.parseCsvLine(quotedLine);
+  }
+
+  @Benchmark
+  public String escapeCsvFieldPlain() {
+    return CsvUtil.escapeCsvField(plainField);
+  }
+
+  @Benchmark
+  public String escapeCsvFieldQuoted() {
+    return CsvUtil.escapeCsvField(quotedField);
+  }
+}
@@ -0,0 +1,106 @@
+package Clipper.benchmark;
+
+import Clipper.model.ClipboardEntry;
+import Clipper.service.CompactionPolicy;
+import Clipper.service.FileManager;
+import Clipper.service.HistoryArchive;
+import Clipper.util.CsvUtil;
+import Clipper.util.DateUtil;
+import Clipper.util.FsyncPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// 保存（コピーから永続化まで）のレイテンシと、1日分のパーティションの読み込み時間。
+// データは一時ディレクトリに作るので、実際の履歴には触れない。
+// 保存の完了はfsyncポリシーごとに意味が違うので、3つとも測る（-p fsync=OS などで絞れる）。
+// GROUP_COMMITの保存は次の定期同期まで完了しないため、同期間隔（clipper.fsync.intervalMillis）が上乗せされる
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g", "-Dclipper.log.level=WARN" })
+public class FileManagerBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  private int size;
+
+  @Param({ "ALWAYS", "GROUP_COMMIT", "OS" })
+  private String fsync;
+
+  private Path homeDirectory;
+  private FileManager fileManager;
+  private LocalDate loadDate;
+  private long captured;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    homeDirectory = Files.createTempDirectory("clipper-benchmark");
+    // FileManagerはuser.home配下をデータディレクトリにする
+    System.setProperty("user.home", homeDirectory.toString());
+    CsvUtil.setFsyncPolicy(FsyncPolicy.valueOf(fsync));
+    fileManager = new FileManager(CompactionPolicy.defaults(), FileManager.StorageFormat.BINARY);
+
+    // 読み込み対象の日にsize件を入れておく（保存の書き込み先である今日とは別の日にする）
+    loadDate = LocalDate.now().minusDays(1);
+    Path seed = homeDirectory.resolve("seed.csv");
+    long dayStart = DateUtil.toEpochMillis(loadDate.atStartOfDay());
+    long step = Math.max(1, TimeUnit.DAYS.toMillis(1) / size);
+    try (Writer writer = HistoryArchive.openWriter(seed, HistoryArchive.Compression.NONE)) {
+      CsvUtil.writeCsvLine(writer, CsvUtil.createCsvHeader());
+      for (int i = 0; i < size; i++) {
+        ClipboardEntry entry = new ClipboardEntry(UUID.randomUUID().toString(), dayStart + i * step, false,
+            BenchmarkData.text(i));
+        CsvUtil.writeCsvLine(writer, HistoryArchive.toPortableRow(entry));
+      }
+    }
+    HistoryArchive.ImportResult result = fileManager
+        .importAsync(seed, HistoryArchive.Filter.all(), null, null).join();
+    if (!result.isSuccess() || result.getImported() != size) {
+      throw new IllegalStateException("ベンチマーク用データの準備に失敗しました: " + result.getError());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fileManager.shutdown();
+    try (Stream<Path> files = Files.walk(homeDirectory)) {
+      for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public boolean saveEntry() {
+    return fileManager.saveEntryAsync(new ClipboardEntry(BenchmarkData.capturedText(captured++))).join();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public List<ClipboardEntry> loadEntries() {
+    return fileManager.loadEntriesAsync(loadDate).join();
+  }
+}
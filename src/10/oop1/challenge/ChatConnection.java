@@ -0,0 +1,22 @@
+package oop1.challenge;
+
+import java.nio.ByteBuffer;
+
+// サーバーから見た1クライアントとの接続。
+// 接続ごとのスレッドで動くClientHandlerと、イベントループで動くNioChatTransportの接続がある
+interface ChatConnection {
+  String getUsername();
+
+  void setUsername(String username);
+
+  // どのスレッドから呼んでもよい。送信待ちに積むだけで、送信の完了は待たない
+  default void sendMessage(String message) {
+    sendEncoded(ChatServer.encodeLine(message));
+  }
+
+  // エンコード済みのバイト列を送る。複数の接続で共有される読み取り専用のバッファなので、
+  // 実装側はduplicateした上で読み進める
+  void sendEncoded(ByteBuffer encoded);
+
+  OutboundQueue<?> getOutboundQueue();
+}
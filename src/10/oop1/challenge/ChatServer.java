@@ -2,18 +2,54 @@ package oop1.challenge;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class ChatServer {
-  private static final int PORT = 8080;
-  private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
+  static final int PORT = 8080;
+  static final String PROMPT = "> ";
+  static final String[] WELCOME_MESSAGES = {
+      "100 INFO CONNECTED Welcome to Chat Server",
+      "100 INFO HELP Available commands: REGISTER, BROADCAST, JOIN, LEAVE, GROUPCAST, STATUS, QUIT, HELP"
+  };
+  // 全接続に送る定型文は起動時に1回だけエンコードしておく
+  static final ByteBuffer ENCODED_PROMPT = encode(PROMPT);
+  static final ByteBuffer ENCODED_WELCOME = encode(String.join("\n", WELCOME_MESSAGES) + "\n");
+  private final Map<String, ChatConnection> clients = new ConcurrentHashMap<>();
   private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
-  private final ExecutorService threadPool = Executors.newCachedThreadPool();
+  // ユーザー名 -> 参加しているグループ名（groupsの逆引き）
+  private final Map<String, Set<String>> userGroups = new ConcurrentHashMap<>();
+  private final ExecutorService threadPool;
+  // 1接続あたりの送信待ちの上限と、超えたときの扱い（-Dchat.outbound.capacity, -Dchat.outbound.policy）
+  private final int outboundCapacity = Integer.getInteger("chat.outbound.capacity", 1024);
+  private final OutboundQueue.OverflowPolicy overflowPolicy =
+      OutboundQueue.OverflowPolicy.parse(System.getProperty("chat.outbound.policy", "drop-oldest"));
+  private final OutboundQueue.Stats outboundStats = new OutboundQueue.Stats();
   private ServerSocket serverSocket;
 
+  public ChatServer() {
+    this(Executors.newCachedThreadPool());
+  }
+
+  // 接続ごとのClientHandlerを動かすExecutor
+  ChatServer(ExecutorService threadPool) {
+    this.threadPool = threadPool;
+  }
+
+  // --nio を付けると、接続ごとのスレッドではなくSelectorによるイベントループで待ち受ける。
+  // --virtual を付けると、ClientHandlerはブロッキングのまま接続ごとに仮想スレッドで動かす
   public static void main(String[] args) {
-    new ChatServer().start();
+    List<String> options = Arrays.asList(args);
+    if (options.contains("--nio")) {
+      new NioChatTransport(new ChatServer(), PORT).start();
+    } else if (options.contains("--virtual")) {
+      new ChatServer(Executors.newVirtualThreadPerTaskExecutor()).start();
+    } else {
+      new ChatServer().start();
+    }
   }
 
   public void start() {
@@ -26,6 +62,9 @@ public class ChatServer {
         Socket clientSocket = serverSocket.accept();
         ClientHandler clientHandler = new ClientHandler(clientSocket, this);
         threadPool.execute(clientHandler);
+        // 送信は受信とは別のタスクが行うので、読まないクライアントがいても他の送信側は止まらない。
+        // その代わり、スレッドプールでは1接続あたりスレッドを2本使う（接続数が多いなら --virtual か --nio）
+        threadPool.execute(clientHandler::writeLoop);
         System.out.println("New client connected: " + clientSocket.getRemoteSocketAddress());
       }
     } catch (IOException e) {
@@ -33,79 +72,108 @@ public class ChatServer {
     }
   }
 
-  public synchronized String registerUser(String username, ClientHandler handler) {
+  static ByteBuffer encodeLine(String message) {
+    return encode(message + "\n");
+  }
+
+  // 宛先が何人いてもエンコードは1回で、各接続は同じバイト列をduplicateして送る
+  static ByteBuffer encode(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+  }
+
+  <T> OutboundQueue<T> newOutboundQueue() {
+    return new OutboundQueue<>(outboundCapacity, overflowPolicy, outboundStats);
+  }
+
+  // 送信待ちが溢れて切断するとき（どのスレッドからも呼ばれる）
+  void reportSlowClient(ChatConnection connection) {
+    System.err.println("Disconnecting slow client: " + connection.getUsername()
+        + " (" + connection.getOutboundQueue().describe() + ")");
+  }
+
+  public String registerUser(String username, ChatConnection handler) {
     if (username == null || !username.matches("^[a-zA-Z0-9_]{1,20}$")) {
       return "401 ERROR INVALID_USERNAME_FORMAT";
     }
 
-    if (clients.containsKey(username)) {
+    // 確認と登録を1回で行うので、同じ名前での同時登録も片方だけが通る
+    if (clients.putIfAbsent(username, handler) != null) {
       return "400 ERROR USERNAME_ALREADY_EXISTS";
     }
 
-    clients.put(username, handler);
     handler.setUsername(username);
     System.out.println("User registered: " + username);
     return "200 OK REGISTERED " + username;
   }
 
-  public synchronized void unregisterUser(String username) {
-    if (username != null) {
-      clients.remove(username);
-      // 全グループから削除
-      for (Set<String> groupMembers : groups.values()) {
-        groupMembers.remove(username);
+  // connectionがusernameを登録した接続の場合だけ解除する。
+  // 名前を持ったままグループから抜けてから名前を手放すので、同じ名前で登録し直した接続の参加状態は消さない
+  public void unregisterUser(String username, ChatConnection connection) {
+    if (username != null && clients.get(username) == connection) {
+      // 参加しているグループだけから削除
+      Set<String> joinedGroups = userGroups.remove(username);
+      if (joinedGroups != null) {
+        for (String groupName : joinedGroups) {
+          Set<String> groupMembers = groups.get(groupName);
+          if (groupMembers != null) {
+            groupMembers.remove(username);
+          }
+        }
       }
+      clients.remove(username, connection);
       System.out.println("User unregistered: " + username);
     }
   }
 
-  public synchronized String joinGroup(String username, String groupName) {
+  public String joinGroup(String username, String groupName) {
     if (username == null) {
       return "403 ERROR NOT_REGISTERED";
     }
 
-    groups.computeIfAbsent(groupName, k -> ConcurrentHashMap.newKeySet());
-    Set<String> groupMembers = groups.get(groupName);
-
-    if (groupMembers.contains(username)) {
+    Set<String> groupMembers = groups.computeIfAbsent(groupName, k -> ConcurrentHashMap.newKeySet());
+    if (!groupMembers.add(username)) {
       return "402 ERROR ALREADY_JOINED " + groupName;
     }
+    userGroups.computeIfAbsent(username, k -> ConcurrentHashMap.newKeySet()).add(groupName);
 
-    groupMembers.add(username);
     System.out.println("User " + username + " joined group " + groupName);
     return "200 OK JOINED " + groupName;
   }
 
-  public synchronized String leaveGroup(String username, String groupName) {
+  public String leaveGroup(String username, String groupName) {
     if (username == null) {
       return "403 ERROR NOT_REGISTERED";
     }
 
     Set<String> groupMembers = groups.get(groupName);
-    if (groupMembers == null || !groupMembers.contains(username)) {
+    if (groupMembers == null || !groupMembers.remove(username)) {
       return "404 ERROR NOT_IN_GROUP " + groupName;
     }
+    Set<String> joinedGroups = userGroups.get(username);
+    if (joinedGroups != null) {
+      joinedGroups.remove(groupName);
+    }
 
-    groupMembers.remove(username);
     System.out.println("User " + username + " left group " + groupName);
     return "200 OK LEFT " + groupName;
   }
 
-  public synchronized String broadcastMessage(String sender, String message) {
+  // 送信はロックを持たずに行う。送信中に出入りしたユーザーには届くことも届かないこともある
+  public String broadcastMessage(String sender, String message) {
     if (sender == null) {
       return "403 ERROR NOT_REGISTERED";
     }
 
-    String broadcastMsg = "100 INFO BROADCAST_MESSAGE " + sender + " " + message;
-    for (ClientHandler client : clients.values()) {
-      client.sendMessage(broadcastMsg);
+    ByteBuffer broadcastMsg = encodeLine("100 INFO BROADCAST_MESSAGE " + sender + " " + message);
+    for (ChatConnection client : clients.values()) {
+      client.sendEncoded(broadcastMsg);
     }
 
     System.out.println("Broadcast from " + sender + ": " + message);
     return "200 OK MESSAGE_SENT";
   }
 
-  public synchronized String sendGroupMessage(String sender, String groupName, String message) {
+  public String sendGroupMessage(String sender, String groupName, String message) {
     if (sender == null) {
       return "403 ERROR NOT_REGISTERED";
     }
@@ -115,11 +183,11 @@ public class ChatServer {
       return "404 ERROR NOT_IN_GROUP " + groupName;
     }
 
-    String groupMsg = "100 INFO GROUP_MESSAGE " + groupName + " " + sender + " " + message;
+    ByteBuffer groupMsg = encodeLine("100 INFO GROUP_MESSAGE " + groupName + " " + sender + " " + message);
     for (String memberName : groupMembers) {
-      ClientHandler client = clients.get(memberName);
+      ChatConnection client = clients.get(memberName);
       if (client != null) {
-        client.sendMessage(groupMsg);
+        client.sendEncoded(groupMsg);
       }
     }
 
@@ -127,7 +195,7 @@ public class ChatServer {
     return "200 OK GROUP_MESSAGE_SENT";
   }
 
-  public synchronized String getStatus(String username) {
+  public String getStatus(String username) {
     if (username == null) {
       return "403 ERROR NOT_REGISTERED";
     }
@@ -136,85 +204,33 @@ public class ChatServer {
     status.append("100 INFO STATUS Connected as: ").append(username).append("\n");
     status.append("100 INFO STATUS Online users: ").append(clients.keySet()).append("\n");
     status.append("100 INFO STATUS Joined groups: ");
+    status.append(new ArrayList<>(userGroups.getOrDefault(username, Collections.emptySet()))).append("\n");
 
-    List<String> userGroups = new ArrayList<>();
-    for (Map.Entry<String, Set<String>> entry : groups.entrySet()) {
-      if (entry.getValue().contains(username)) {
-        userGroups.add(entry.getKey());
-      }
+    ChatConnection connection = clients.get(username);
+    if (connection != null) {
+      status.append("100 INFO STATUS Outbound queue: ").append(connection.getOutboundQueue().describe()).append("\n");
+    }
+    long queued = 0;
+    for (ChatConnection client : clients.values()) {
+      queued += client.getOutboundQueue().size();
     }
-    status.append(userGroups);
+    status.append("100 INFO STATUS Server outbound: queued=").append(queued)
+        .append(" dropped=").append(outboundStats.dropped.get())
+        .append(" disconnected=").append(outboundStats.disconnected.get())
+        .append(" policy=").append(overflowPolicy);
 
     return status.toString();
   }
-}
-
-class ClientHandler implements Runnable {
-  private final Socket socket;
-  private final ChatServer server;
-  private final BufferedReader reader;
-  private final PrintWriter writer;
-  private String username;
-
-  public ClientHandler(Socket socket, ChatServer server) throws IOException {
-    this.socket = socket;
-    this.server = server;
-    this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-    this.writer = new PrintWriter(socket.getOutputStream(), true);
-  }
-
-  public void setUsername(String username) {
-    this.username = username;
-  }
-
-  public void sendMessage(String message) {
-    writer.println(message);
-  }
-
-  @Override
-  public void run() {
-    try {
-      writer.println("100 INFO CONNECTED Welcome to Chat Server");
-      writer
-          .println("100 INFO HELP Available commands: REGISTER, BROADCAST, JOIN, LEAVE, GROUPCAST, STATUS, QUIT, HELP");
-      writer.print("> ");
-      writer.flush();
-
-      String inputLine;
-      while ((inputLine = reader.readLine()) != null) {
-        String response = processCommand(inputLine.trim());
-        if (response != null) {
-          if (response.contains("\n")) {
-            // 複数行の応答の場合
-            String[] lines = response.split("\n");
-            for (String line : lines) {
-              writer.println(line);
-            }
-          } else {
-            writer.println(response);
-          }
-        }
-
-        if (inputLine.trim().equals("QUIT")) {
-          break;
-        }
-
-        writer.print("> ");
-        writer.flush();
-      }
-    } catch (IOException e) {
-      System.err.println("Client handler error: " + e.getMessage());
-    } finally {
-      cleanup();
-    }
-  }
 
-  private String processCommand(String input) {
+  // 1行分のコマンドを処理して応答を返す（複数行の応答は改行区切り、応答なしはnull）。
+  // 接続方式によらず共通で、どのスレッドから呼んでもよい
+  String processCommand(ChatConnection connection, String input) {
     if (input.isEmpty()) {
       return null;
     }
 
     String[] parts = parseCommand(input);
+    String username = connection.getUsername();
     String command = parts[0].toUpperCase();
 
     switch (command) {
@@ -222,36 +238,36 @@ class ClientHandler implements Runnable {
         if (parts.length != 2) {
           return "400 ERROR INVALID_COMMAND_FORMAT";
         }
-        return server.registerUser(parts[1], this);
+        return registerUser(parts[1], connection);
 
       case "BROADCAST":
         if (parts.length < 2) {
           return "400 ERROR INVALID_COMMAND_FORMAT";
         }
         String broadcastMsg = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
-        return server.broadcastMessage(username, broadcastMsg);
+        return broadcastMessage(username, broadcastMsg);
 
       case "JOIN":
         if (parts.length != 2) {
           return "400 ERROR INVALID_COMMAND_FORMAT";
         }
-        return server.joinGroup(username, parts[1]);
+        return joinGroup(username, parts[1]);
 
       case "LEAVE":
         if (parts.length != 2) {
           return "400 ERROR INVALID_COMMAND_FORMAT";
         }
-        return server.leaveGroup(username, parts[1]);
+        return leaveGroup(username, parts[1]);
 
       case "GROUPCAST":
         if (parts.length < 3) {
           return "400 ERROR INVALID_COMMAND_FORMAT";
         }
         String groupMsg = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
-        return server.sendGroupMessage(username, parts[1], groupMsg);
+        return sendGroupMessage(username, parts[1], groupMsg);
 
       case "STATUS":
-        return server.getStatus(username);
+        return getStatus(username);
 
       case "QUIT":
         return "200 OK GOODBYE";
@@ -271,7 +287,7 @@ class ClientHandler implements Runnable {
     }
   }
 
-  private String[] parseCommand(String input) {
+  private static String[] parseCommand(String input) {
     List<String> parts = new ArrayList<>();
     boolean inQuotes = false;
     StringBuilder currentPart = new StringBuilder();
@@ -297,10 +313,117 @@ class ClientHandler implements Runnable {
 
     return parts.toArray(new String[0]);
   }
+}
+
+class ClientHandler implements Runnable, ChatConnection {
+  private final Socket socket;
+  private final ChatServer server;
+  private final BufferedReader reader;
+  private final OutputStream output;
+  private final WritableByteChannel writer;
+  private final OutboundQueue<ByteBuffer> outbound;
+  private volatile String username;
+
+  public ClientHandler(Socket socket, ChatServer server) throws IOException {
+    this.socket = socket;
+    this.server = server;
+    this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    this.output = new BufferedOutputStream(socket.getOutputStream());
+    this.writer = Channels.newChannel(output);
+    this.outbound = server.newOutboundQueue();
+  }
+
+  @Override
+  public String getUsername() {
+    return username;
+  }
+
+  @Override
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  @Override
+  public OutboundQueue<ByteBuffer> getOutboundQueue() {
+    return outbound;
+  }
+
+  @Override
+  public void sendEncoded(ByteBuffer encoded) {
+    if (!outbound.offer(encoded.duplicate())) {
+      server.reportSlowClient(this);
+      close();
+    }
+  }
+
+  // 受信側。応答も送信待ちに積むだけで、ソケットには書かない
+  @Override
+  public void run() {
+    try {
+      sendEncoded(ChatServer.ENCODED_WELCOME);
+      sendEncoded(ChatServer.ENCODED_PROMPT);
+
+      String inputLine;
+      while ((inputLine = reader.readLine()) != null) {
+        String response = server.processCommand(this, inputLine.trim());
+        if (response != null) {
+          if (response.contains("\n")) {
+            // 複数行の応答の場合
+            String[] lines = response.split("\n");
+            for (String line : lines) {
+              sendMessage(line);
+            }
+          } else {
+            sendMessage(response);
+          }
+        }
+
+        if (inputLine.trim().equals("QUIT")) {
+          break;
+        }
+
+        sendEncoded(ChatServer.ENCODED_PROMPT);
+      }
+    } catch (IOException e) {
+      if (!socket.isClosed()) {
+        System.err.println("Client handler error: " + e.getMessage());
+      }
+    } finally {
+      server.unregisterUser(username, this);
+      // 溜まっている応答を送り終えたら、writeLoopがソケットを閉じる
+      outbound.finish();
+    }
+  }
+
+  // 送信側。溜まっている分をまとめてバッファに書いてからflushする
+  void writeLoop() {
+    try {
+      ByteBuffer buffer;
+      while ((buffer = outbound.take()) != null) {
+        writer.write(buffer);
+        while ((buffer = outbound.poll()) != null) {
+          writer.write(buffer);
+        }
+        int skipped = outbound.takeSkippedCount();
+        if (skipped > 0) {
+          writer.write(ChatServer.encodeLine("100 INFO MESSAGES_SKIPPED " + skipped));
+        }
+        output.flush();
+      }
+    } catch (IOException e) {
+      if (!socket.isClosed()) {
+        System.err.println("Client handler error: " + e.getMessage());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      close();
+    }
+  }
 
-  private void cleanup() {
+  private void close() {
+    outbound.close();
     try {
-      server.unregisterUser(username);
       socket.close();
     } catch (IOException e) {
       System.err.println("Error closing socket: " + e.getMessage());
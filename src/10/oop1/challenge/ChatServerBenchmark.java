@@ -0,0 +1,149 @@
+package oop1.challenge;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// 待ち受け方式ごとに、接続を張ったままにしたときのメモリとスレッド数、ブロードキャストの配信時間を測る。
+// サーバーはポート8080で動かしたままになるので、方式ごとに別のJVMで実行して結果を並べる
+//   java oop1.challenge.ChatServerBenchmark pool 5000
+//   java oop1.challenge.ChatServerBenchmark virtual 5000
+//   java oop1.challenge.ChatServerBenchmark nio 5000
+// クライアント側のソケットも同じプロセスにあるが、どの方式でも同じだけ上乗せされる
+public class ChatServerBenchmark {
+  private static final String BROADCAST_TEXT = "benchmark";
+
+  public static void main(String[] args) throws Exception {
+    String mode = args.length > 0 ? args[0] : "pool";
+    int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    Thread serverThread = new Thread(() -> startServer(mode), "chat-server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    waitForServer();
+
+    settle();
+    long rssBefore = readRssKb();
+    long heapBefore = usedHeap();
+    int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    long connectStart = System.nanoTime();
+    List<Socket> sockets = new ArrayList<>(connections);
+    for (int i = 0; i < connections; i++) {
+      Socket socket = new Socket("localhost", ChatServer.PORT);
+      socket.setSoTimeout(30_000);
+      socket.getOutputStream().write(("REGISTER user" + i + "\n").getBytes(StandardCharsets.UTF_8));
+      sockets.add(socket);
+    }
+    for (Socket socket : sockets) {
+      readUntil(socket, "200 OK REGISTERED");
+    }
+    long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+
+    settle();
+    long rssAfter = readRssKb();
+    long heapAfter = usedHeap();
+    int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    // 1人が送ったブロードキャストが全員に届くまでの時間
+    long broadcastStart = System.nanoTime();
+    sockets.get(0).getOutputStream().write(("BROADCAST " + BROADCAST_TEXT + "\n").getBytes(StandardCharsets.UTF_8));
+    for (Socket socket : sockets) {
+      readUntil(socket, BROADCAST_TEXT);
+    }
+    long broadcastMillis = (System.nanoTime() - broadcastStart) / 1_000_000;
+
+    System.out.println("mode:               " + mode);
+    System.out.println("connections:        " + connections);
+    System.out.println("connect+register:   " + connectMillis + " ms");
+    System.out.println("broadcast to all:   " + broadcastMillis + " ms");
+    System.out.println("platform threads:   " + threads);
+    // poolは受信と送信で1接続あたり2本。virtualの仮想スレッドとnioのイベントループはここに数えられない
+    System.out.println("threads per conn:   " + String.format("%.2f", (double) (threads - threadsBefore) / connections)
+        + ("pool".equals(mode) ? " (reader + writer)" : ""));
+    System.out.println("heap per conn:      " + (heapAfter - heapBefore) / connections + " bytes");
+    if (rssBefore >= 0 && rssAfter >= 0) {
+      System.out.println("rss per conn:       " + (rssAfter - rssBefore) * 1024 / connections + " bytes");
+    } else {
+      System.out.println("rss per conn:       n/a (/proc/self/status is not available)");
+    }
+
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  private static void startServer(String mode) {
+    switch (mode) {
+      case "pool":
+        new ChatServer().start();
+        break;
+      case "virtual":
+        new ChatServer(Executors.newVirtualThreadPerTaskExecutor()).start();
+        break;
+      case "nio":
+        new NioChatTransport(new ChatServer(), ChatServer.PORT).start();
+        break;
+      default:
+        System.err.println("Unknown mode: " + mode + " (pool, virtual, nio)");
+        System.exit(1);
+    }
+  }
+
+  private static void waitForServer() throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      try {
+        // つながれば起動済み。接続はすぐ閉じる
+        new Socket("localhost", ChatServer.PORT).close();
+        return;
+      } catch (IOException e) {
+        Thread.sleep(100);
+      }
+    }
+    throw new IllegalStateException("Server did not start on port " + ChatServer.PORT);
+  }
+
+  // 受信済みのデータは読み捨ててよいので、その都度小さく読む
+  private static void readUntil(Socket socket, String marker) throws IOException {
+    InputStream in = socket.getInputStream();
+    byte[] buffer = new byte[512];
+    StringBuilder received = new StringBuilder();
+    while (received.indexOf(marker) < 0) {
+      int n = in.read(buffer);
+      if (n < 0) {
+        throw new EOFException("Connection closed before receiving: " + marker);
+      }
+      received.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+    }
+  }
+
+  private static void settle() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(200);
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  // スレッドのスタックはヒープの外にあるので、プロセスの常駐メモリ（Linuxのみ）も見る
+  private static long readRssKb() {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Linux以外
+    }
+    return -1;
+  }
+}
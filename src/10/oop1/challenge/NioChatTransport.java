@@ -0,0 +1,342 @@
+package oop1.challenge;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Selectorを使ったノンブロッキングの待ち受け。
+// 受け付けは呼び出し元のスレッド、読み書きはCPU数分のイベントループが担当するので、
+// 接続数が増えてもスレッド数は増えない。コマンドの処理はChatServer.processCommandをそのまま使う
+class NioChatTransport {
+  private static final int BACKLOG = 4096;
+  private static final int READ_BUFFER_SIZE = 8192;
+  // 改行が来ないまま、これを超えて送ってくる接続は切断する
+  private static final int MAX_LINE_LENGTH = 8192;
+  // 1回のgathering writeで書くメッセージの最大数
+  private static final int WRITE_BATCH_SIZE = 64;
+
+  private final ChatServer server;
+  private final int port;
+  private final EventLoop[] eventLoops;
+  private final AtomicInteger connectionCount = new AtomicInteger();
+
+  NioChatTransport(ChatServer server, int port) {
+    this(server, port, Runtime.getRuntime().availableProcessors());
+  }
+
+  NioChatTransport(ChatServer server, int port, int eventLoopCount) {
+    this.server = server;
+    this.port = port;
+    this.eventLoops = new EventLoop[Math.max(1, eventLoopCount)];
+  }
+
+  public void start() {
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+      for (int i = 0; i < eventLoops.length; i++) {
+        eventLoops[i] = new EventLoop(i);
+        eventLoops[i].start();
+      }
+      System.out.println("Chat Server started on port " + port + " (NIO, " + eventLoops.length + " event loops)");
+      System.out.println("Use 'nc localhost 8080' to connect or run ChatClient");
+
+      int next = 0;
+      while (true) {
+        SocketChannel channel = serverChannel.accept();
+        eventLoops[next].register(channel);
+        next = (next + 1) % eventLoops.length;
+      }
+    } catch (IOException e) {
+      System.err.println("Server error: " + e.getMessage());
+    }
+  }
+
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  // 1つのSelectorと、そこに登録された接続の読み書きをすべて1スレッドで行う
+  private class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    // 全接続で共有する読み込みバッファ（このループのスレッドでしか使わない）
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // 送信待ちから取り出したメッセージを並べてまとめて書く（同じく共有）
+    private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_SIZE];
+
+    EventLoop(int index) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, "chat-event-loop-" + index);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void register(SocketChannel channel) {
+      pendingChannels.add(channel);
+      selector.wakeup();
+    }
+
+    void requestWrite(NioConnection connection) {
+      pendingWrites.add(connection);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          selector.select();
+        } catch (IOException e) {
+          System.err.println("Selector error: " + e.getMessage());
+          return;
+        }
+
+        registerPendingChannels();
+        flushPendingWrites();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          NioConnection connection = (NioConnection) key.attachment();
+          try {
+            if (key.isValid() && key.isReadable()) {
+              connection.read(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.flush();
+            }
+          } catch (IOException | RuntimeException e) {
+            // 1つの接続の失敗でループ全体を止めない
+            System.err.println("Client handler error: " + e.getMessage());
+            connection.close();
+          }
+        }
+      }
+    }
+
+    private void registerPendingChannels() {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        try {
+          channel.configureBlocking(false);
+          SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+          NioConnection connection = new NioConnection(channel, this, key);
+          key.attach(connection);
+          connectionCount.incrementAndGet();
+          System.out.println("New client connected: " + channel.getRemoteAddress());
+
+          connection.sendEncoded(ChatServer.ENCODED_WELCOME);
+          connection.sendEncoded(ChatServer.ENCODED_PROMPT);
+        } catch (IOException e) {
+          System.err.println("Error registering client: " + e.getMessage());
+          try {
+            channel.close();
+          } catch (IOException ignored) {
+            // 既に切断されている
+          }
+        }
+      }
+    }
+
+    private void flushPendingWrites() {
+      NioConnection connection;
+      while ((connection = pendingWrites.poll()) != null) {
+        try {
+          connection.flush();
+        } catch (IOException e) {
+          connection.close();
+        }
+      }
+    }
+  }
+
+  private class NioConnection implements ChatConnection {
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final SelectionKey key;
+    private final OutboundQueue<ByteBuffer> outbound;
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    private volatile String username;
+    private volatile boolean closed;
+    // 送信待ちが溢れた。切断はイベントループで行う
+    private volatile boolean overflowed;
+
+    // 以下はイベントループのスレッドでのみ使う
+    // 改行が来るまでの途中の行。待機しているだけの接続では確保しない
+    private ByteArrayOutputStream partialLine;
+    // ソケットのバッファが一杯で書き残したメッセージ。送信待ちから取り出してあるので、
+    // DROP_OLDESTで途中から捨てられることはない。遅いクライアントでだけ確保する
+    private ByteBuffer[] unwritten;
+    private boolean closeAfterFlush;
+
+    NioConnection(SocketChannel channel, EventLoop eventLoop, SelectionKey key) {
+      this.channel = channel;
+      this.eventLoop = eventLoop;
+      this.key = key;
+      this.outbound = server.newOutboundQueue();
+    }
+
+    @Override
+    public String getUsername() {
+      return username;
+    }
+
+    @Override
+    public void setUsername(String username) {
+      this.username = username;
+    }
+
+    @Override
+    public OutboundQueue<ByteBuffer> getOutboundQueue() {
+      return outbound;
+    }
+
+    // 書き込みはイベントループが行う。まだ依頼していなければループに依頼する
+    @Override
+    public void sendEncoded(ByteBuffer encoded) {
+      if (!outbound.offer(encoded.duplicate())) {
+        overflowed = true;
+        server.reportSlowClient(this);
+        eventLoop.requestWrite(this);
+        return;
+      }
+      if (writeRequested.compareAndSet(false, true)) {
+        eventLoop.requestWrite(this);
+      }
+    }
+
+    void read(ByteBuffer buffer) throws IOException {
+      buffer.clear();
+      int read = channel.read(buffer);
+      if (read < 0) {
+        close();
+        return;
+      }
+
+      byte[] bytes = buffer.array();
+      int lineStart = 0;
+      for (int i = 0; i < read && !closeAfterFlush; i++) {
+        if (bytes[i] != '\n') {
+          continue;
+        }
+        String line;
+        if (partialLine == null) {
+          line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+        } else {
+          partialLine.write(bytes, lineStart, i - lineStart);
+          line = partialLine.toString(StandardCharsets.UTF_8);
+          partialLine = null;
+        }
+        lineStart = i + 1;
+        handleLine(line);
+      }
+
+      if (lineStart < read && !closeAfterFlush) {
+        if (partialLine == null) {
+          partialLine = new ByteArrayOutputStream();
+        }
+        partialLine.write(bytes, lineStart, read - lineStart);
+        if (partialLine.size() > MAX_LINE_LENGTH) {
+          System.err.println("Line too long from " + channel.getRemoteAddress() + ", disconnecting");
+          close();
+        }
+      }
+    }
+
+    private void handleLine(String line) {
+      // trimで行末の\rも取り除かれる
+      String input = line.trim();
+      String response = server.processCommand(this, input);
+      if (response != null) {
+        for (String responseLine : response.split("\n")) {
+          sendMessage(responseLine);
+        }
+      }
+
+      if (input.equals("QUIT")) {
+        // 応答を送り切ってから切断する。以降の行は読まない
+        closeAfterFlush = true;
+        eventLoop.requestWrite(this);
+        return;
+      }
+      sendEncoded(ChatServer.ENCODED_PROMPT);
+    }
+
+    // 溜まっているメッセージをgathering writeでまとめて送る。
+    // ソケットのバッファが一杯になったら、書き残しを持って書き込み可能になるまでOP_WRITEで待つ
+    void flush() throws IOException {
+      if (closed) {
+        return;
+      }
+      if (overflowed) {
+        close();
+        return;
+      }
+      writeRequested.set(false);
+
+      ByteBuffer[] batch = eventLoop.writeBatch;
+      int count = 0;
+      if (unwritten != null) {
+        count = unwritten.length;
+        System.arraycopy(unwritten, 0, batch, 0, count);
+        unwritten = null;
+      }
+      while (true) {
+        count += outbound.drainTo(batch, count, batch.length - count);
+        if (count == 0) {
+          int skipped = outbound.takeSkippedCount();
+          if (skipped == 0) {
+            break;
+          }
+          batch[count++] = ChatServer.encodeLine("100 INFO MESSAGES_SKIPPED " + skipped);
+        }
+
+        channel.write(batch, 0, count);
+        int written = 0;
+        while (written < count && !batch[written].hasRemaining()) {
+          written++;
+        }
+        if (written < count) {
+          unwritten = Arrays.copyOfRange(batch, written, count);
+          Arrays.fill(batch, 0, count, null);
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+        Arrays.fill(batch, 0, count, null);
+        count = 0;
+      }
+
+      key.interestOps(SelectionKey.OP_READ);
+      if (closeAfterFlush) {
+        close();
+      }
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      server.unregisterUser(username, this);
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        System.err.println("Error closing socket: " + e.getMessage());
+      }
+      outbound.close();
+      unwritten = null;
+      connectionCount.decrementAndGet();
+    }
+  }
+}
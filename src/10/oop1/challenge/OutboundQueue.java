@@ -0,0 +1,176 @@
+package oop1.challenge;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+
+// 1接続分の送信待ちメッセージ。どのスレッドからでも追加でき、取り出すのはその接続の書き込み役だけ。
+// 上限に達したときの扱いはOverflowPolicyで決める
+// （仮想スレッドで待つこともあるので、synchronizedではなくReentrantLockを使う）
+class OutboundQueue<T> {
+
+  enum OverflowPolicy {
+    // 一番古い未送信のメッセージを捨てる
+    DROP_OLDEST,
+    // 遅いクライアントを切断する
+    DISCONNECT,
+    // 新しいメッセージを捨て、捨てた件数を後で1行にまとめて知らせる
+    COALESCE;
+
+    static OverflowPolicy parse(String value) {
+      return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+  }
+
+  // サーバー全体での集計（STATUSで表示する）
+  static class Stats {
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong disconnected = new AtomicLong();
+  }
+
+  private final int capacity;
+  private final OverflowPolicy policy;
+  private final Stats stats;
+  private final ArrayDeque<T> messages = new ArrayDeque<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private int peakDepth;
+  private long dropped;
+  private int skippedSinceNotice;
+  private boolean overflowed;
+  private boolean closed;
+
+  OutboundQueue(int capacity, OverflowPolicy policy, Stats stats) {
+    this.capacity = capacity;
+    this.policy = policy;
+    this.stats = stats;
+  }
+
+  // falseを返したら、DISCONNECTで上限を超えたので呼び出し側で切断する（falseを返すのは最初の1回だけ）
+  boolean offer(T message) {
+    lock.lock();
+    try {
+      if (closed || overflowed) {
+        // 閉じた、または切断待ちの接続への送信は捨てる
+        return true;
+      }
+      if (messages.size() >= capacity) {
+        switch (policy) {
+          case DROP_OLDEST:
+            messages.pollFirst();
+            countDropped();
+            break;
+          case COALESCE:
+            skippedSinceNotice++;
+            countDropped();
+            return true;
+          case DISCONNECT:
+            overflowed = true;
+            stats.disconnected.incrementAndGet();
+            return false;
+        }
+      }
+      messages.addLast(message);
+      peakDepth = Math.max(peakDepth, messages.size());
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void countDropped() {
+    dropped++;
+    stats.dropped.incrementAndGet();
+  }
+
+  // 空ならnull
+  T poll() {
+    lock.lock();
+    try {
+      return messages.pollFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // 最大max件をtargetのoffset以降に取り出し、取り出した件数を返す
+  int drainTo(T[] target, int offset, int max) {
+    lock.lock();
+    try {
+      int count = 0;
+      while (count < max && !messages.isEmpty()) {
+        target[offset + count++] = messages.pollFirst();
+      }
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // 届くまで待つ。閉じられたらnull
+  T take() throws InterruptedException {
+    lock.lock();
+    try {
+      while (messages.isEmpty() && !closed) {
+        notEmpty.await();
+      }
+      return messages.pollFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // COALESCEで前回から捨てた件数を返し、0に戻す
+  int takeSkippedCount() {
+    lock.lock();
+    try {
+      int skipped = skippedSinceNotice;
+      skippedSinceNotice = 0;
+      return skipped;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // 以降の追加は無視する。溜まっている分は取り出せ、空になるとtakeがnullを返す
+  void finish() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // 溜まっている分も捨てる
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      messages.clear();
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return messages.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  String describe() {
+    lock.lock();
+    try {
+      return "depth=" + messages.size() + " peak=" + peakDepth + " capacity=" + capacity + " dropped=" + dropped;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -2,19 +2,28 @@ package oop1.section10;
 
 import java.io.*;
 import java.net.*;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 
 public class SimpleHTTPServer {
   private static final int PORT = 8088;
 
+  // --virtual を付けると、受け付けたリクエストを1つずつ仮想スレッドで処理する
+  // （付けない場合は受け付けたスレッドで順番に処理する）
   public static void main(String[] args) {
+    boolean virtual = Arrays.asList(args).contains("--virtual");
     try (ServerSocket serverSocket = new ServerSocket(PORT)) {
       System.out.println("SimpleHTTPServer started on port " + PORT);
       System.out.println("Access to http://localhost:" + PORT);
 
       while (true) {
-        try (Socket clientSocket = serverSocket.accept()) {
-          handleRequest(clientSocket);
+        try {
+          Socket clientSocket = serverSocket.accept();
+          if (virtual) {
+            Thread.ofVirtual().start(() -> serve(clientSocket));
+          } else {
+            serve(clientSocket);
+          }
         } catch (IOException e) {
           System.err.println("Error handling client request: " + e.getMessage());
         }
@@ -24,6 +33,14 @@ public class SimpleHTTPServer {
     }
   }
 
+  private static void serve(Socket clientSocket) {
+    try (clientSocket) {
+      handleRequest(clientSocket);
+    } catch (IOException e) {
+      System.err.println("Error handling client request: " + e.getMessage());
+    }
+  }
+
   private static void handleRequest(Socket clientSocket) throws IOException {
     BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
     PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
@@ -1,27 +1,34 @@
 package Clipper;
 
 import Clipper.gui.MainWindow;
+import Clipper.util.Log;
+import Clipper.util.Metrics;
 
 import javax.swing.*;
 
 public class ClipperApp {
 
   public static void main(String[] args) {
+    // 起動から最初の描画までの時間を測るため、最初に記録しておく
+    long startNanos = System.nanoTime();
+    // jconsoleなどから Clipper:type=Metrics として参照できる
+    Metrics.getDefault().registerMBean();
+
     System.setProperty("apple.laf.useScreenMenuBar", "true");
     System.setProperty("com.apple.mrj.application.apple.menu.about.name", "Clipper");
 
     SwingUtilities.invokeLater(() -> {
       try {
         try {
-          System.out.println("Look and Feel設定をスキップしました");
+          Log.debug("Look and Feel設定をスキップしました");
         } catch (Exception lafException) {
-          System.err.println("Look and Feelの設定に失敗: " + lafException.getMessage());
+          Log.error("Look and Feelの設定に失敗: ", lafException.getMessage());
         }
 
-        MainWindow mainWindow = new MainWindow();
+        MainWindow mainWindow = new MainWindow(startNanos);
         mainWindow.showWindow();
 
-        System.out.println("Clipperが起動しました。");
+        Log.info("Clipperが起動しました。");
 
       } catch (Exception e) {
         e.printStackTrace();
@@ -0,0 +1,72 @@
+package Clipper.gui;
+
+import Clipper.model.ClipboardEntry;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// 履歴リストのモデル。表示中のエントリだけを保持し、差分単位で変更を通知する
+public class EntryListModel extends AbstractListModel<ClipboardEntry> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<ClipboardEntry> entries = new ArrayList<>();
+
+  @Override
+  public int getSize() {
+    return entries.size();
+  }
+
+  @Override
+  public ClipboardEntry getElementAt(int index) {
+    return entries.get(index);
+  }
+
+  public void setEntries(List<ClipboardEntry> newEntries) {
+    int oldSize = entries.size();
+    entries.clear();
+    if (oldSize > 0) {
+      fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+
+    entries.addAll(newEntries);
+    if (!entries.isEmpty()) {
+      fireIntervalAdded(this, 0, entries.size() - 1);
+    }
+  }
+
+  public void insertFirst(ClipboardEntry entry) {
+    entries.add(0, entry);
+    fireIntervalAdded(this, 0, 0);
+  }
+
+  public boolean remove(ClipboardEntry entry) {
+    int index = entries.indexOf(entry);
+    if (index < 0) {
+      return false;
+    }
+
+    entries.remove(index);
+    fireIntervalRemoved(this, index, index);
+    return true;
+  }
+
+  // 末尾側から1回の走査でまとめて取り除く（古いエントリの追い出し用）
+  public void removeAll(Set<ClipboardEntry> removed) {
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      if (removed.contains(entries.get(i))) {
+        entries.remove(i);
+        fireIntervalRemoved(this, i, i);
+      }
+    }
+  }
+
+  public void entryChanged(ClipboardEntry entry) {
+    int index = entries.indexOf(entry);
+    if (index >= 0) {
+      fireContentsChanged(this, index, index);
+    }
+  }
+}
@@ -12,7 +12,9 @@ import java.awt.event.MouseEvent;
 
 public class EntryPanel extends JPanel {
 
-  private final ClipboardEntry entry;
+  private static final long serialVersionUID = 1L;
+
+  private ClipboardEntry entry;
   private final ClipboardMonitor clipboardMonitor;
   private final EntryActionListener actionListener;
 
@@ -149,7 +151,7 @@ public class EntryPanel extends JPanel {
     textArea.setLineWrap(true);
     textArea.setWrapStyleWord(true);
 
-    textArea.setRows(Math.min(3, entry.getText().split("\n").length));
+    textArea.setRows(Math.min(3, entry.getPreviewLineCount()));
 
     textPanel.add(textArea, BorderLayout.CENTER);
 
@@ -305,6 +307,59 @@ public class EntryPanel extends JPanel {
     return entry;
   }
 
+  // リストのセルレンダラーとして使い回す場合に、表示するエントリを差し替える
+  public void setEntry(ClipboardEntry entry) {
+    this.entry = entry;
+    textArea.setRows(Math.min(3, entry.getPreviewLineCount()));
+    refresh();
+  }
+
+  public void setHovered(boolean hovered) {
+    if (hovered && !entry.isFavorite()) {
+      setBackground(HOVER_BACKGROUND);
+      textArea.setBackground(HOVER_BACKGROUND);
+    } else {
+      updateBackground();
+    }
+  }
+
+  // セルレンダラーとして描画している場合は実際のボタンにイベントが届かないため、
+  // クリック位置（このパネル内の座標）からどの操作かを判定して実行する
+  public boolean dispatchClick(Point point, int clickCount, Component dialogParent) {
+    Component target = SwingUtilities.getDeepestComponentAt(this, point.x, point.y);
+
+    if (target == favoriteButton) {
+      if (actionListener != null) {
+        actionListener.onEntryFavoriteToggled(entry);
+      }
+      return true;
+    }
+
+    if (target == copyButton || (clickCount == 2 && !(target instanceof JButton))) {
+      clipboardMonitor.copyToClipboard(entry.getText());
+      if (actionListener != null) {
+        actionListener.onEntryCopied(entry);
+      }
+      return true;
+    }
+
+    if (target == deleteButton) {
+      int result = JOptionPane.showConfirmDialog(
+          dialogParent,
+          "このエントリを削除しますか？",
+          "削除確認",
+          JOptionPane.YES_NO_OPTION,
+          JOptionPane.QUESTION_MESSAGE);
+
+      if (result == JOptionPane.YES_OPTION && actionListener != null) {
+        actionListener.onEntryDeleted(entry);
+      }
+      return true;
+    }
+
+    return false;
+  }
+
   public void refresh() {
     timestampLabel.setText(entry.getFormattedTimestamp());
     textArea.setText(entry.getPreviewText());
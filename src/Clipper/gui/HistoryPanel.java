@@ -4,22 +4,32 @@ import Clipper.model.ClipboardData;
 import Clipper.model.ClipboardEntry;
 import Clipper.service.ClipboardMonitor;
 import Clipper.service.FileManager;
+import Clipper.util.Log;
+import Clipper.util.Metrics;
 
 import javax.swing.*;
 import java.awt.*;
 import java.time.LocalDate;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListener {
 
+  private static final long serialVersionUID = 1L;
+
   private final ClipboardData clipboardData;
   private final ClipboardMonitor clipboardMonitor;
   private final FileManager fileManager;
   private FavoriteUpdateListener favoriteUpdateListener;
 
   // UI Components
-  private JPanel entriesContainer;
+  private EntryListModel listModel;
+  private JList<ClipboardEntry> entryList;
+  private EntryCellRenderer cellRenderer;
+  private JPanel listContainer;
+  private CardLayout listCardLayout;
   private JScrollPane scrollPane;
   private JLabel statusLabel;
   private JTextField searchField;
@@ -28,6 +38,15 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
   private LocalDate currentDisplayDate;
   private String currentSearchQuery = "";
   private boolean showFavoritesOnly = false;
+  private boolean showingAllEntries = false;
+  private boolean showingFavoriteEntries = false;
+  private boolean loadingPartition = false;
+  private Runnable afterNextPaint;
+  private final Metrics.Histogram refreshTime = Metrics.getDefault().histogram("ui.historyRefreshTime");
+
+  private static final String CARD_LIST = "list";
+  private static final String CARD_EMPTY = "empty";
+  private static final int ENTRY_GAP = 5;
 
   public interface FavoriteUpdateListener {
     void onFavoriteUpdated();
@@ -39,7 +58,7 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
     this.fileManager = fileManager;
 
     initializeUI();
-    loadTodayEntries();
+    displayInitialPage();
   }
 
   public void setFavoriteUpdateListener(FavoriteUpdateListener listener) {
@@ -53,20 +72,116 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
     JPanel toolbarPanel = createToolbarPanel();
     add(toolbarPanel, BorderLayout.NORTH);
 
-    entriesContainer = new JPanel();
-    entriesContainer.setLayout(new BoxLayout(entriesContainer, BoxLayout.Y_AXIS));
-    entriesContainer.setBackground(Color.WHITE);
+    createEntryList();
 
-    scrollPane = new JScrollPane(entriesContainer);
+    scrollPane = new JScrollPane(entryList);
     scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
     scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
     scrollPane.getVerticalScrollBar().setUnitIncrement(16);
-    add(scrollPane, BorderLayout.CENTER);
+    // 「すべて」表示で末尾までスクロールしたら、次に古い日付のパーティションを読み込む
+    scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+      BoundedRangeModel model = scrollPane.getVerticalScrollBar().getModel();
+      if (showingAllEntries && !e.getValueIsAdjusting()
+          && model.getValue() + model.getExtent() >= model.getMaximum() - entryList.getFixedCellHeight()) {
+        loadOlderPartition();
+      }
+    });
+
+    JLabel emptyLabel = new JLabel("エントリが見つかりません");
+    emptyLabel.setForeground(Color.GRAY);
+    emptyLabel.setHorizontalAlignment(SwingConstants.CENTER);
+    emptyLabel.setVerticalAlignment(SwingConstants.TOP);
+    emptyLabel.setBorder(BorderFactory.createEmptyBorder(50, 0, 0, 0));
+    JPanel emptyPanel = new JPanel(new BorderLayout());
+    emptyPanel.setBackground(Color.WHITE);
+    emptyPanel.add(emptyLabel, BorderLayout.CENTER);
+
+    listCardLayout = new CardLayout();
+    listContainer = new JPanel(listCardLayout);
+    listContainer.add(scrollPane, CARD_LIST);
+    listContainer.add(emptyPanel, CARD_EMPTY);
+    add(listContainer, BorderLayout.CENTER);
 
     JPanel statusPanel = createStatusPanel();
     add(statusPanel, BorderLayout.SOUTH);
   }
 
+  // 表示中の行だけを描画する仮想化リスト。エントリごとにコンポーネントは作らず、
+  // 1つのEntryPanelをセルレンダラーとして使い回す
+  private void createEntryList() {
+    listModel = new EntryListModel();
+    cellRenderer = new EntryCellRenderer();
+
+    entryList = new JList<ClipboardEntry>(listModel) {
+      @Override
+      public boolean getScrollableTracksViewportWidth() {
+        return true;
+      }
+    };
+    entryList.setCellRenderer(cellRenderer);
+    entryList.setBackground(Color.WHITE);
+    entryList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    // 固定サイズにすることで、全行の大きさを計算せずに済む
+    entryList.setFixedCellHeight(cellRenderer.getPrototypeHeight());
+    entryList.setFixedCellWidth(1);
+
+    java.awt.event.MouseAdapter mouseHandler = new java.awt.event.MouseAdapter() {
+      @Override
+      public void mouseClicked(java.awt.event.MouseEvent e) {
+        handleListClick(e);
+      }
+
+      @Override
+      public void mouseMoved(java.awt.event.MouseEvent e) {
+        int index = rowAt(e.getPoint());
+        if (index != cellRenderer.getHoverIndex()) {
+          repaintRow(cellRenderer.getHoverIndex());
+          cellRenderer.setHoverIndex(index);
+          repaintRow(index);
+        }
+      }
+
+      @Override
+      public void mouseExited(java.awt.event.MouseEvent e) {
+        int previous = cellRenderer.getHoverIndex();
+        cellRenderer.setHoverIndex(-1);
+        repaintRow(previous);
+      }
+    };
+    entryList.addMouseListener(mouseHandler);
+    entryList.addMouseMotionListener(mouseHandler);
+  }
+
+  private int rowAt(Point point) {
+    int index = entryList.locationToIndex(point);
+    if (index < 0) {
+      return -1;
+    }
+    Rectangle bounds = entryList.getCellBounds(index, index);
+    return bounds != null && bounds.contains(point) ? index : -1;
+  }
+
+  private void repaintRow(int index) {
+    if (index >= 0 && index < listModel.getSize()) {
+      Rectangle bounds = entryList.getCellBounds(index, index);
+      if (bounds != null) {
+        entryList.repaint(bounds);
+      }
+    }
+  }
+
+  private void handleListClick(java.awt.event.MouseEvent e) {
+    int index = rowAt(e.getPoint());
+    if (index < 0) {
+      return;
+    }
+
+    Rectangle bounds = entryList.getCellBounds(index, index);
+    EntryPanel panel = cellRenderer.prepare(listModel.getElementAt(index), bounds.width, bounds.height);
+    Point local = new Point(e.getX() - bounds.x, e.getY() - bounds.y);
+    panel.dispatchClick(local, e.getClickCount(), this);
+  }
+
   private JPanel createToolbarPanel() {
     JPanel toolbarPanel = new JPanel(new BorderLayout());
     toolbarPanel.setBackground(new Color(248, 248, 248));
@@ -136,15 +251,70 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
 
   public void loadEntriesForDate(LocalDate date) {
     currentDisplayDate = date;
+    showingAllEntries = false;
+    showingFavoriteEntries = false;
     statusLabel.setText("読み込み中...");
 
-    // 単一ファイル対応：メモリ内のデータから日付で絞り込み
-    SwingUtilities.invokeLater(() -> {
-      List<ClipboardEntry> entries = clipboardData.getEntriesByDate(date);
-      displayEntries(entries);
-      updateStatusLabel(entries.size());
-      System.out.println("日付別表示: " + date + " (" + entries.size() + " エントリ)");
-    });
+    // まだ読み込んでいない日付は、その日のパーティションを読んでから表示する
+    if (!fileManager.isDateLoaded(date) && fileManager.getPartitionEntryCount(date) > 0) {
+      fileManager.loadEntriesAsync(date).thenAccept(entries -> {
+        clipboardData.mergeEntries(entries);
+        SwingUtilities.invokeLater(() -> {
+          if (date.equals(currentDisplayDate) && !showingAllEntries && !showingFavoriteEntries) {
+            showEntriesForDate(date);
+          }
+        });
+      });
+      return;
+    }
+
+    SwingUtilities.invokeLater(() -> showEntriesForDate(date));
+  }
+
+  // 起動直後に、読み込み済みの最新ページだけで今日の一覧を表示する（パーティションの読み込みは待たない）
+  public void displayInitialPage() {
+    currentDisplayDate = LocalDate.now();
+    showingAllEntries = false;
+    showingFavoriteEntries = false;
+    showEntriesForDate(currentDisplayDate);
+  }
+
+  // バックグラウンドの読み込みで増えたエントリを、スクロール位置を保ったまま現在の表示に反映する
+  public void refreshCurrentView() {
+    if (showingAllEntries) {
+      showAllEntries(false);
+    } else if (showingFavoriteEntries) {
+      displayFavoriteEntries();
+    } else if (currentDisplayDate != null) {
+      showEntriesForDate(currentDisplayDate, false);
+    }
+  }
+
+  public void runAfterNextPaint(Runnable action) {
+    afterNextPaint = action;
+    repaint();
+  }
+
+  @Override
+  public void paint(Graphics g) {
+    super.paint(g);
+    if (afterNextPaint != null) {
+      Runnable action = afterNextPaint;
+      afterNextPaint = null;
+      action.run();
+    }
+  }
+
+  private void showEntriesForDate(LocalDate date) {
+    showEntriesForDate(date, true);
+  }
+
+  // メモリ内のデータから日付で絞り込み
+  private void showEntriesForDate(LocalDate date, boolean scrollToTop) {
+    List<ClipboardEntry> entries = clipboardData.getEntriesByDate(date);
+    displayEntries(entries, scrollToTop);
+    updateStatusLabel(entries.size());
+    Log.debug("日付別表示: ", date);
   }
 
   private void toggleFavoritesOnly() {
@@ -164,7 +334,15 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
   }
 
   private void displayEntries(List<ClipboardEntry> entries) {
-    entriesContainer.removeAll();
+    displayEntries(entries, true);
+  }
+
+  private void displayEntries(List<ClipboardEntry> entries, boolean scrollToTop) {
+    long start = System.nanoTime();
+    // 検索は全文インデックスで一度だけ行い、表示中の一覧との共通部分を取る
+    Set<ClipboardEntry> searchMatches = currentSearchQuery.trim().isEmpty()
+        ? null
+        : new HashSet<>(clipboardData.searchEntries(currentSearchQuery));
 
     List<ClipboardEntry> filteredEntries = entries.stream()
         .filter(entry -> {
@@ -173,34 +351,30 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
             return false;
           }
 
-          if (!currentSearchQuery.isEmpty()) {
-            return entry.getText().toLowerCase().contains(currentSearchQuery.toLowerCase());
+          if (searchMatches != null) {
+            return searchMatches.contains(entry);
           }
 
           return true;
         })
         .collect(java.util.stream.Collectors.toList());
 
-    if (filteredEntries.isEmpty()) {
+    listModel.setEntries(filteredEntries);
+    listCardLayout.show(listContainer, filteredEntries.isEmpty() ? CARD_EMPTY : CARD_LIST);
+    refreshTime.recordSince(start);
 
-      JLabel emptyLabel = new JLabel("エントリが見つかりません");
-      emptyLabel.setForeground(Color.GRAY);
-      emptyLabel.setHorizontalAlignment(SwingConstants.CENTER);
-      emptyLabel.setBorder(BorderFactory.createEmptyBorder(50, 0, 0, 0));
-      entriesContainer.add(emptyLabel);
-    } else {
-
-      for (ClipboardEntry entry : filteredEntries) {
-        EntryPanel entryPanel = new EntryPanel(entry, clipboardMonitor, this);
-        entriesContainer.add(entryPanel);
-        entriesContainer.add(Box.createRigidArea(new Dimension(0, 5)));
-      }
+    if (scrollToTop) {
+      SwingUtilities.invokeLater(() -> scrollPane.getVerticalScrollBar().setValue(0));
     }
+  }
 
-    entriesContainer.revalidate();
-    entriesContainer.repaint();
+  private boolean matchesCurrentFilter(ClipboardEntry entry) {
+    if (showFavoritesOnly && !entry.isFavorite()) {
+      return false;
+    }
 
-    SwingUtilities.invokeLater(() -> scrollPane.getVerticalScrollBar().setValue(0));
+    String query = currentSearchQuery.trim();
+    return query.isEmpty() || entry.getSearchableText().toLowerCase().contains(query.toLowerCase());
   }
 
   private void updateStatusLabel(int totalCount) {
@@ -209,17 +383,57 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
   }
 
   public void displayFavoriteEntries() {
+    showingAllEntries = false;
+    showingFavoriteEntries = true;
     List<ClipboardEntry> favoriteEntries = clipboardData.getFavoriteEntries();
     displayEntries(favoriteEntries);
     statusLabel.setText("お気に入り - " + favoriteEntries.size() + "件のエントリ");
+
+    // 古いパーティションにあるお気に入りは後から読み込んで追加する
+    if (fileManager.getUnloadedFavoriteCount() > 0) {
+      fileManager.loadFavoritePartitionsAsync().thenAccept(entries -> {
+        if (clipboardData.mergeEntries(entries) > 0) {
+          SwingUtilities.invokeLater(() -> {
+            if (showingFavoriteEntries) {
+              displayFavoriteEntries();
+            }
+          });
+        }
+      });
+    }
   }
 
   public void displayAllEntries() {
+    showingAllEntries = true;
+    showingFavoriteEntries = false;
+    showAllEntries(true);
+  }
+
+  private void showAllEntries(boolean scrollToTop) {
     List<ClipboardEntry> allEntries = clipboardData.getAllEntries();
-    displayEntries(allEntries);
+    displayEntries(allEntries, scrollToTop);
     statusLabel.setText("すべて - " + allEntries.size() + "件のエントリ");
   }
 
+  private void loadOlderPartition() {
+    LocalDate date = fileManager.getNextUnloadedDate();
+    if (loadingPartition || date == null) {
+      return;
+    }
+
+    loadingPartition = true;
+    statusLabel.setText("古い履歴を読み込み中...");
+    fileManager.loadEntriesAsync(date).thenAccept(entries -> {
+      clipboardData.mergeEntries(entries);
+      SwingUtilities.invokeLater(() -> {
+        loadingPartition = false;
+        if (showingAllEntries) {
+          showAllEntries(false);
+        }
+      });
+    });
+  }
+
   private void clearAllEntries() {
     int result = JOptionPane.showConfirmDialog(
         this,
@@ -237,7 +451,7 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
           .thenAccept(success -> {
             SwingUtilities.invokeLater(() -> {
               if (success) {
-                System.out.println("すべてのエントリを削除しました");
+                Log.info("すべてのエントリを削除しました");
                 displayEntries(clipboardData.getAllEntries());
                 updateStatusLabel(0);
               } else {
@@ -255,7 +469,7 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
                   "エラー",
                   JOptionPane.ERROR_MESSAGE);
             });
-            throwable.printStackTrace();
+            Log.error("削除処理中にエラーが発生: ", throwable);
             return null;
           });
     }
@@ -264,10 +478,13 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
   public void onNewEntry(ClipboardEntry entry) {
     // EDTで即座にUIを更新
     SwingUtilities.invokeLater(() -> {
-      // 現在の日付を表示中の場合、表示を更新
+      // 現在の日付を表示中の場合、一覧を作り直さずに先頭へ1行だけ挿入する
       if (currentDisplayDate != null && currentDisplayDate.equals(LocalDate.now())) {
-        // 表示を更新してスクロールを一番上に移動
-        refreshDisplay();
+        if (matchesCurrentFilter(entry)) {
+          listModel.insertFirst(entry);
+          listCardLayout.show(listContainer, CARD_LIST);
+          updateStatusLabel(clipboardData.getEntriesByDate(currentDisplayDate).size());
+        }
 
         // スクロールを一番上に移動
         scrollPane.getVerticalScrollBar().setValue(0);
@@ -275,6 +492,14 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
     });
   }
 
+  // 保持上限でメモリから外されたエントリを表示から除く（ディスク上には残っている）
+  public void onEntriesEvicted(List<ClipboardEntry> evicted) {
+    listModel.removeAll(new HashSet<>(evicted));
+    if (listModel.getSize() == 0) {
+      listCardLayout.show(listContainer, CARD_EMPTY);
+    }
+  }
+
   @Override
   public void onEntryDeleted(ClipboardEntry entry) {
     // メモリ上のデータから削除
@@ -286,7 +511,7 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
           .thenAccept(success -> {
             SwingUtilities.invokeLater(() -> {
               if (success) {
-                System.out.println("エントリを削除しました: " + entry.getId());
+                Log.debug("エントリを削除しました: ", entry.getId());
                 // UI更新は既にrefreshDisplay()で実行済み
               } else {
                 // ファイル削除に失敗した場合、メモリからも復元する
@@ -309,12 +534,15 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
                   "削除エラー",
                   JOptionPane.ERROR_MESSAGE);
             });
-            throwable.printStackTrace();
+            Log.error("削除処理中にエラーが発生: ", throwable);
             return null;
           });
 
       // UI を即座に更新（楽観的更新）
-      refreshDisplay();
+      listModel.remove(entry);
+      if (listModel.getSize() == 0) {
+        listCardLayout.show(listContainer, CARD_EMPTY);
+      }
     } else {
       JOptionPane.showMessageDialog(this,
           "エントリが見つかりません。",
@@ -327,12 +555,17 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
   public void onEntryFavoriteToggled(ClipboardEntry entry) {
     // お気に入り状態を切り替え
     clipboardData.toggleFavorite(entry.getId());
+    if (showFavoritesOnly && !entry.isFavorite()) {
+      listModel.remove(entry);
+    } else {
+      listModel.entryChanged(entry);
+    }
 
     // ファイルに保存
     fileManager.updateEntryAsync(entry)
         .thenAccept(success -> {
           if (!success) {
-            System.err.println("エントリの更新に失敗: " + entry.getId());
+            Log.error("エントリの更新に失敗: ", entry.getId());
           }
         });
 
@@ -361,4 +594,59 @@ public class HistoryPanel extends JPanel implements EntryPanel.EntryActionListen
   public LocalDate getCurrentDisplayDate() {
     return currentDisplayDate;
   }
+
+  private class EntryCellRenderer implements ListCellRenderer<ClipboardEntry> {
+    private final EntryPanel entryPanel;
+    private final JPanel cell;
+    private int hoverIndex = -1;
+
+    EntryCellRenderer() {
+      ClipboardEntry placeholder = new ClipboardEntry("", java.time.LocalDateTime.now(), false, "");
+      entryPanel = new EntryPanel(placeholder, clipboardMonitor, HistoryPanel.this);
+
+      cell = new JPanel(new BorderLayout());
+      cell.setBackground(Color.WHITE);
+      cell.setBorder(BorderFactory.createEmptyBorder(0, 0, ENTRY_GAP, 0));
+      cell.add(entryPanel, BorderLayout.CENTER);
+    }
+
+    int getPrototypeHeight() {
+      entryPanel.setEntry(new ClipboardEntry("", java.time.LocalDateTime.now(), false, "1\n2\n3"));
+      return cell.getPreferredSize().height;
+    }
+
+    int getHoverIndex() {
+      return hoverIndex;
+    }
+
+    void setHoverIndex(int hoverIndex) {
+      this.hoverIndex = hoverIndex;
+    }
+
+    // クリック位置の判定用に、指定したエントリでセルと同じ大きさにレイアウトする
+    EntryPanel prepare(ClipboardEntry entry, int width, int height) {
+      entryPanel.setEntry(entry);
+      cell.setSize(width, height);
+      // 表示階層に属していないためvalidate()は効かず、各コンテナを直接レイアウトする
+      layoutTree(cell);
+      return entryPanel;
+    }
+
+    private void layoutTree(Container container) {
+      container.doLayout();
+      for (Component child : container.getComponents()) {
+        if (child instanceof Container) {
+          layoutTree((Container) child);
+        }
+      }
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends ClipboardEntry> list, ClipboardEntry value,
+        int index, boolean isSelected, boolean cellHasFocus) {
+      entryPanel.setEntry(value);
+      entryPanel.setHovered(index == hoverIndex);
+      return cell;
+    }
+  }
 }
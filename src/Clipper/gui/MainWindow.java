@@ -2,19 +2,32 @@ package Clipper.gui;
 
 import Clipper.model.ClipboardData;
 import Clipper.model.ClipboardEntry;
+import Clipper.model.RetentionPolicy;
 import Clipper.service.ClipboardMonitor;
 import Clipper.service.FileManager;
+import Clipper.service.HistoryArchive;
+import Clipper.util.DateUtil;
+import Clipper.util.Log;
+import Clipper.util.Metrics;
 
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class MainWindow extends JFrame implements
     SideBarPanel.DateSelectionListener,
     ClipboardMonitor.ClipboardChangeListener {
 
+  private static final long serialVersionUID = 1L;
+
   private final ClipboardData clipboardData;
   private final ClipboardMonitor clipboardMonitor;
   private final FileManager fileManager;
@@ -27,13 +40,28 @@ public class MainWindow extends JFrame implements
   private static final String WINDOW_TITLE = "Clipper - クリップボード管理";
   private static final int DEFAULT_WIDTH = 900;
   private static final int DEFAULT_HEIGHT = 600;
+  // 0の場合は古い履歴を削除しない
+  private static final int RETENTION_DAYS = Integer.getInteger("clipper.retention.days", 0);
+  // 起動直後に表示する最新エントリの件数（残りはバックグラウンドで読み込む）
+  private static final int FIRST_PAGE_SIZE = 50;
+  private static final int RECENT_DAYS = 7;
+  private static final int PROGRESS_MAX = 1000;
+
+  private final long startNanos;
+  private volatile long timeToFirstPaintMillis = -1;
 
   public MainWindow() {
+    this(System.nanoTime());
+  }
 
-    this.clipboardData = new ClipboardData();
+  public MainWindow(long startNanos) {
+    this.startNanos = startNanos;
+    this.clipboardData = new ClipboardData(RetentionPolicy.defaults());
     this.fileManager = new FileManager();
     this.clipboardMonitor = new ClipboardMonitor(clipboardData, fileManager);
 
+    Metrics.getDefault().gauge("startup.timeToFirstPaintMillis", this::getTimeToFirstPaintMillis);
+
     initializeUI();
     loadInitialData();
     setupEventHandlers();
@@ -62,9 +90,9 @@ public class MainWindow extends JFrame implements
 
     try {
 
-      System.out.println("Look and Feel設定をスキップしました");
+      Log.debug("Look and Feel設定をスキップしました");
     } catch (Exception e) {
-      System.err.println("Look and Feelの設定に失敗: " + e.getMessage());
+      Log.error("Look and Feelの設定に失敗: ", e.getMessage());
     }
   }
 
@@ -129,25 +157,58 @@ public class MainWindow extends JFrame implements
     return statusPanel;
   }
 
+  // まず最新の1ページだけを読んで表示し、直近の履歴全体はその後バックグラウンドで読み込んで追加する
   private void loadInitialData() {
-    System.out.println("初期データの読み込みを開始...");
+    Log.info("初期データの読み込みを開始...");
 
-    fileManager.loadRecentEntriesAsync(7)
+    fileManager.loadNewestEntriesAsync(FIRST_PAGE_SIZE)
         .thenAccept(entries -> {
-          System.out.println("読み込み完了エントリ数: " + entries.size());
-          clipboardData.loadEntries(entries);
+          clipboardData.mergeEntries(entries);
           SwingUtilities.invokeLater(() -> {
-            historyPanel.loadTodayEntries();
+            historyPanel.displayInitialPage();
+            historyPanel.runAfterNextPaint(() -> {
+              timeToFirstPaintMillis = (System.nanoTime() - startNanos) / 1_000_000;
+              Log.info("初回描画までの時間(ms): ", timeToFirstPaintMillis);
+            });
+          });
+        })
+        .thenCompose(ignored -> fileManager.loadRecentEntriesAsync(RECENT_DAYS))
+        .thenAccept(entries -> {
+          // 最初のページ表示後に取り込んだエントリを消さないよう、置き換えではなく追加する
+          int added = clipboardData.mergeEntries(entries);
+          clipboardData.applyRetention();
+          Log.info("バックグラウンド読み込み完了、追加したエントリ数: ", added);
+          SwingUtilities.invokeLater(() -> {
+            historyPanel.refreshCurrentView();
             sideBarPanel.refresh();
           });
+          applyRetention();
         })
         .exceptionally(throwable -> {
-          System.err.println("初期データの読み込みに失敗: " + throwable.getMessage());
-          throwable.printStackTrace();
+          Log.error("初期データの読み込みに失敗: ", throwable);
           return null;
         });
   }
 
+  // 起動から最新ページを描画し終えるまでの時間。まだ描画していない場合は-1
+  public long getTimeToFirstPaintMillis() {
+    return timeToFirstPaintMillis;
+  }
+
+  // メモリ上の古いエントリを外し、ディスク上は日付ごとのパーティションをまとめて破棄する
+  private void applyRetention() {
+    if (RETENTION_DAYS <= 0) {
+      return;
+    }
+
+    int removed = clipboardData.cleanupOldEntries(RETENTION_DAYS);
+    fileManager.dropOldPartitionsAsync(RETENTION_DAYS).thenAccept(dropped -> {
+      if (removed > 0 || dropped > 0) {
+        SwingUtilities.invokeLater(sideBarPanel::refresh);
+      }
+    });
+  }
+
   private void setupEventHandlers() {
 
     addWindowListener(new WindowAdapter() {
@@ -159,10 +220,38 @@ public class MainWindow extends JFrame implements
 
     clipboardMonitor.setChangeListener(this);
 
+    // 保持上限で追い出されたエントリ。該当日は次に開いた時にパーティションから読み直す
+    clipboardData.setEvictionListener(evicted -> {
+      Set<LocalDate> dates = new HashSet<>();
+      for (ClipboardEntry entry : evicted) {
+        dates.add(entry.getDate());
+      }
+      fileManager.markDatesUnloaded(dates);
+      SwingUtilities.invokeLater(() -> {
+        historyPanel.onEntriesEvicted(evicted);
+        sideBarPanel.refreshDateEntries();
+      });
+    });
+
+    // 同じデータディレクトリを使う別のClipperや同期スクリプトによる変更を取り込む
+    fileManager.setExternalChangeListener(changes -> SwingUtilities.invokeLater(() -> {
+      int added = clipboardData.mergeEntries(changes.getAddedEntries());
+      for (Map.Entry<String, Boolean> change : changes.getFavoriteChanges().entrySet()) {
+        clipboardData.setFavorite(change.getKey(), change.getValue());
+      }
+      for (String id : changes.getDeletedIds()) {
+        clipboardData.removeEntry(id);
+      }
+      clipboardData.applyRetention();
+      Log.debug("他のプロセスによる変更を反映しました。追加: ", added);
+      historyPanel.refreshCurrentView();
+      sideBarPanel.refresh();
+    }));
+
     // お気に入り更新リスナー
     historyPanel.setFavoriteUpdateListener(() -> {
       SwingUtilities.invokeLater(() -> {
-        System.out.println("お気に入り更新通知受信");
+        Log.debug("お気に入り更新通知受信");
         sideBarPanel.refresh(); // お気に入り数を含む全体更新
       });
     });
@@ -203,7 +292,10 @@ public class MainWindow extends JFrame implements
   public void onClipboardChanged(ClipboardEntry newEntry) {
     // EDTで実行することを保証
     SwingUtilities.invokeLater(() -> {
-      System.out.println("UI更新開始: " + newEntry.getText().substring(0, Math.min(30, newEntry.getText().length())));
+      String preview = newEntry.getPreviewText();
+      if (Log.isDebugEnabled()) {
+        Log.debug("UI更新開始: ", preview.substring(0, Math.min(30, preview.length())));
+      }
 
       // SideBarPanelの日付別エントリ数のみ更新（お気に入り数は除く）
       sideBarPanel.refreshDateEntries();
@@ -226,7 +318,7 @@ public class MainWindow extends JFrame implements
       delayedUpdate.setRepeats(false);
       delayedUpdate.start();
 
-      System.out.println("UI更新完了");
+      Log.debug("UI更新完了");
     });
   }
 
@@ -239,28 +331,122 @@ public class MainWindow extends JFrame implements
         JOptionPane.ERROR_MESSAGE);
   }
 
+  // 書き出し先の拡張子（.csv / .csv.gz / .zip）で圧縮形式が決まる
   private void exportData() {
+    HistoryArchive.Filter filter = showTransferFilterDialog("エクスポート条件");
+    if (filter == null) {
+      return;
+    }
+
     JFileChooser fileChooser = new JFileChooser();
     fileChooser.setDialogTitle("データをエクスポート");
-    fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-
-    if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+    fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("CSV (gzip圧縮, *.csv.gz)", "gz"));
+    fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("ZIP (*.zip)", "zip"));
+    fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("CSV (*.csv)", "csv"));
+    fileChooser.setSelectedFile(new File("clipboard_history_" + DateUtil.formatDateForFile(LocalDate.now()) + ".csv.gz"));
 
-      JOptionPane.showMessageDialog(this, "エクスポート機能は実装中です。");
+    if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return;
     }
+
+    File target = fileChooser.getSelectedFile();
+    ProgressMonitor monitor = new ProgressMonitor(this, "履歴をエクスポートしています...", "", 0, PROGRESS_MAX);
+    fileManager.exportAsync(target.toPath(), filter, progressUpdater(monitor))
+        .thenAccept(count -> SwingUtilities.invokeLater(() -> {
+          monitor.close();
+          if (count >= 0) {
+            JOptionPane.showMessageDialog(this, count + "件のエントリをエクスポートしました。\n" + target);
+          } else {
+            JOptionPane.showMessageDialog(this, "エクスポートに失敗しました。", "エラー", JOptionPane.ERROR_MESSAGE);
+          }
+        }));
   }
 
+  // 無圧縮・gzip・zipのいずれも読める。メモリ上と同じ内容のエントリは取り込まない
   private void importData() {
     JFileChooser fileChooser = new JFileChooser();
     fileChooser.setDialogTitle("データをインポート");
     fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
 
-    if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+    if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return;
+    }
+    HistoryArchive.Filter filter = showTransferFilterDialog("インポート条件");
+    if (filter == null) {
+      return;
+    }
 
-      JOptionPane.showMessageDialog(this, "インポート機能は実装中です。");
+    File source = fileChooser.getSelectedFile();
+    ProgressMonitor monitor = new ProgressMonitor(this, "履歴をインポートしています...", "", 0, PROGRESS_MAX);
+    fileManager.importAsync(source.toPath(), filter, clipboardData::containsSameContent, progressUpdater(monitor))
+        .thenAccept(result -> {
+          if (result.isSuccess()) {
+            // 取り込んだ日付は読み直し、表示中の直近分はすぐに反映する
+            fileManager.markDatesUnloaded(result.getDates());
+            fileManager.loadRecentEntriesAsync(RECENT_DAYS).thenAccept(entries -> {
+              clipboardData.mergeEntries(entries);
+              clipboardData.applyRetention();
+              SwingUtilities.invokeLater(() -> {
+                historyPanel.refreshCurrentView();
+                sideBarPanel.refresh();
+              });
+            });
+          }
+          SwingUtilities.invokeLater(() -> {
+            monitor.close();
+            if (result.isSuccess()) {
+              JOptionPane.showMessageDialog(this, String.format("%d件のエントリをインポートしました。（スキップ: %d件）",
+                  result.getImported(), result.getSkipped()));
+            } else {
+              JOptionPane.showMessageDialog(this, "インポートに失敗しました: " + result.getError(), "エラー",
+                  JOptionPane.ERROR_MESSAGE);
+            }
+          });
+        });
+  }
+
+  private HistoryArchive.ProgressListener progressUpdater(ProgressMonitor monitor) {
+    return (processed, fraction) -> SwingUtilities.invokeLater(() -> {
+      monitor.setNote(processed + "件");
+      monitor.setProgress((int) (fraction * PROGRESS_MAX));
+    });
+  }
+
+  // 期間（yyyy-MM-dd、空欄は制限なし）とお気に入りのみの指定。キャンセルまたは入力が不正な場合はnull
+  private HistoryArchive.Filter showTransferFilterDialog(String title) {
+    JTextField fromField = new JTextField(10);
+    JTextField toField = new JTextField(10);
+    JCheckBox favoritesOnlyBox = new JCheckBox("お気に入りのみ");
+
+    JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+    panel.add(new JLabel("開始日 (yyyy-MM-dd):"));
+    panel.add(fromField);
+    panel.add(new JLabel("終了日 (yyyy-MM-dd):"));
+    panel.add(toField);
+    panel.add(favoritesOnlyBox);
+
+    int result = JOptionPane.showConfirmDialog(this, panel, title, JOptionPane.OK_CANCEL_OPTION,
+        JOptionPane.PLAIN_MESSAGE);
+    if (result != JOptionPane.OK_OPTION) {
+      return null;
+    }
+
+    try {
+      return new HistoryArchive.Filter(parseOptionalDate(fromField.getText()), parseOptionalDate(toField.getText()),
+          favoritesOnlyBox.isSelected());
+    } catch (DateTimeParseException e) {
+      JOptionPane.showMessageDialog(this, "日付の形式が正しくありません: " + e.getParsedString(), "エラー",
+          JOptionPane.ERROR_MESSAGE);
+      return null;
     }
   }
 
+  private static LocalDate parseOptionalDate(String text) {
+    String trimmed = text.trim();
+    return trimmed.isEmpty() ? null : LocalDate.parse(trimmed, DateUtil.FILE_DATE_FORMATTER);
+  }
+
   private void clearHistory() {
     int result = JOptionPane.showConfirmDialog(this,
         "すべての履歴を削除しますか？\nこの操作は元に戻せません。",
@@ -277,7 +463,7 @@ public class MainWindow extends JFrame implements
           .thenAccept(success -> {
             SwingUtilities.invokeLater(() -> {
               if (success) {
-                System.out.println("すべての履歴を削除しました");
+                Log.info("すべての履歴を削除しました");
                 historyPanel.loadTodayEntries();
                 sideBarPanel.refresh();
               } else {
@@ -295,7 +481,7 @@ public class MainWindow extends JFrame implements
                   "エラー",
                   JOptionPane.ERROR_MESSAGE);
             });
-            throwable.printStackTrace();
+            Log.error("削除処理中にエラーが発生: ", throwable);
             return null;
           });
     }
@@ -331,7 +517,7 @@ public class MainWindow extends JFrame implements
       // ファイル管理サービスを停止
       fileManager.shutdown();
 
-      System.out.println("Clipperを終了しました。");
+      Log.info("Clipperを終了しました。");
       System.exit(0);
     }
   }
@@ -3,6 +3,8 @@ package Clipper.gui;
 import Clipper.model.ClipboardData;
 import Clipper.service.FileManager;
 import Clipper.util.DateUtil;
+import Clipper.util.Log;
+import Clipper.util.Metrics;
 
 import javax.swing.*;
 import javax.swing.tree.*;
@@ -10,11 +12,14 @@ import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.time.LocalDate;
-import java.util.List;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class SideBarPanel extends JPanel {
 
+  private static final long serialVersionUID = 1L;
+
   private final ClipboardData clipboardData;
   private final FileManager fileManager;
   private final DateSelectionListener dateSelectionListener;
@@ -26,6 +31,7 @@ public class SideBarPanel extends JPanel {
 
   // State
   private LocalDate selectedDate;
+  private final Metrics.Histogram refreshTime = Metrics.getDefault().histogram("ui.sidebarRefreshTime");
 
   public interface DateSelectionListener {
     void onDateSelected(LocalDate date);
@@ -118,34 +124,12 @@ public class SideBarPanel extends JPanel {
       rootNode.removeAllChildren();
 
       // お気に入りノード
-      int favoriteCount = clipboardData.getFavoriteEntries().size();
+      int favoriteCount = clipboardData.getFavoriteEntries().size() + fileManager.getUnloadedFavoriteCount();
       FavoriteTreeNode favoritesNode = new FavoriteTreeNode("お気に入り", favoriteCount);
       rootNode.add(favoritesNode);
-      System.out.println("お気に入り数: " + favoriteCount);
-
-      // 単一ファイル対応：メモリ内のデータを日付別にグループ化
-      Map<LocalDate, List<Clipper.model.ClipboardEntry>> entriesByDate = clipboardData.getEntriesGroupedByDate();
-      System.out.println("総日付数: " + entriesByDate.size());
-
-      // 過去30日の日付を取得して、エントリがある日付のみ表示
-      List<LocalDate> recentDates = DateUtil.getRecentDates(30);
+      Log.debug("お気に入り数: ", favoriteCount);
 
-      for (LocalDate date : recentDates) {
-        List<Clipper.model.ClipboardEntry> entriesForDate = entriesByDate.get(date);
-        int count = entriesForDate != null ? entriesForDate.size() : 0;
-
-        if (count > 0) {
-          DateTreeNode dateNode = new DateTreeNode(date, count);
-          rootNode.add(dateNode);
-          System.out.println(date + ": " + count + " エントリ");
-
-          // 今日の日付を自動選択
-          if (date.equals(LocalDate.now())) {
-            TreePath path = new TreePath(new Object[] { rootNode, dateNode });
-            dateTree.setSelectionPath(path);
-          }
-        }
-      }
+      addDateNodes();
 
       treeModel.nodeStructureChanged(rootNode);
       expandTree(); // ツリーを展開
@@ -174,38 +158,48 @@ public class SideBarPanel extends JPanel {
         rootNode.add(favoritesNode);
       } else {
         // 新規作成（通常は発生しないはず）
-        int favoriteCount = clipboardData.getFavoriteEntries().size();
+        int favoriteCount = clipboardData.getFavoriteEntries().size() + fileManager.getUnloadedFavoriteCount();
         FavoriteTreeNode newFavoritesNode = new FavoriteTreeNode("お気に入り", favoriteCount);
         rootNode.add(newFavoritesNode);
       }
 
-      // 単一ファイル対応：メモリ内のデータを日付別にグループ化
-      Map<LocalDate, List<Clipper.model.ClipboardEntry>> entriesByDate = clipboardData.getEntriesGroupedByDate();
-      System.out.println("総日付数: " + entriesByDate.size());
+      addDateNodes();
 
-      // 過去30日の日付を取得して、エントリがある日付のみ表示
-      List<LocalDate> recentDates = DateUtil.getRecentDates(30);
+      treeModel.nodeStructureChanged(rootNode);
+      expandTree(); // ツリーを展開
+    });
+  }
 
-      for (LocalDate date : recentDates) {
-        List<Clipper.model.ClipboardEntry> entriesForDate = entriesByDate.get(date);
-        int count = entriesForDate != null ? entriesForDate.size() : 0;
+  // 日付の一覧はパーティションのマニフェストから作る。読み込み済みの日付はメモリ上の件数、
+  // まだ読み込んでいない日付はマニフェストの件数を表示し、選択された時に読み込む
+  private void addDateNodes() {
+    long start = System.nanoTime();
+    // 保存前の新しいエントリはまだマニフェストにないので、メモリ上の日付も加える
+    Set<LocalDate> dateSet = new TreeSet<>(Comparator.reverseOrder());
+    dateSet.addAll(fileManager.getAvailableDataDates());
+    dateSet.addAll(clipboardData.getDates());
+    Log.debug("総日付数: ", dateSet.size());
+
+    for (LocalDate date : dateSet) {
+      int count;
+      if (fileManager.isDateLoaded(date) || fileManager.getPartitionEntryCount(date) == 0) {
+        count = clipboardData.countEntriesByDate(date);
+      } else {
+        count = fileManager.getPartitionEntryCount(date);
+      }
 
-        if (count > 0) {
-          DateTreeNode dateNode = new DateTreeNode(date, count);
-          rootNode.add(dateNode);
-          System.out.println(date + ": " + count + " エントリ");
+      if (count > 0) {
+        DateTreeNode dateNode = new DateTreeNode(date, count);
+        rootNode.add(dateNode);
 
-          // 今日の日付を自動選択
-          if (date.equals(LocalDate.now())) {
-            TreePath path = new TreePath(new Object[] { rootNode, dateNode });
-            dateTree.setSelectionPath(path);
-          }
+        // 今日の日付を自動選択
+        if (date.equals(LocalDate.now())) {
+          TreePath path = new TreePath(new Object[] { rootNode, dateNode });
+          dateTree.setSelectionPath(path);
         }
       }
-
-      treeModel.nodeStructureChanged(rootNode);
-      expandTree(); // ツリーを展開
-    });
+    }
+    refreshTime.recordSince(start);
   }
 
   private void handleNodeSelection(DefaultMutableTreeNode node) {
@@ -225,7 +219,7 @@ public class SideBarPanel extends JPanel {
   public void refresh() {
     // EDTで確実に実行
     SwingUtilities.invokeLater(() -> {
-      System.out.println("SideBarPanel全体更新開始");
+      Log.debug("SideBarPanel全体更新開始");
 
       try {
         loadDateTree();
@@ -234,10 +228,9 @@ public class SideBarPanel extends JPanel {
         revalidate();
         repaint();
 
-        System.out.println("SideBarPanel全体更新完了");
+        Log.debug("SideBarPanel全体更新完了");
       } catch (Exception e) {
-        System.err.println("SideBarPanel更新エラー: " + e.getMessage());
-        e.printStackTrace();
+        Log.error("SideBarPanel更新エラー: ", e);
       }
     });
   }
@@ -245,7 +238,7 @@ public class SideBarPanel extends JPanel {
   public void refreshDateEntries() {
     // EDTで確実に実行 - お気に入り数は更新せず、日付別エントリのみ更新
     SwingUtilities.invokeLater(() -> {
-      System.out.println("SideBarPanel日付別エントリ更新開始");
+      Log.debug("SideBarPanel日付別エントリ更新開始");
 
       try {
         loadDateTreeExcludingFavorites();
@@ -254,10 +247,9 @@ public class SideBarPanel extends JPanel {
         revalidate();
         repaint();
 
-        System.out.println("SideBarPanel日付別エントリ更新完了");
+        Log.debug("SideBarPanel日付別エントリ更新完了");
       } catch (Exception e) {
-        System.err.println("SideBarPanel日付別エントリ更新エラー: " + e.getMessage());
-        e.printStackTrace();
+        Log.error("SideBarPanel日付別エントリ更新エラー: ", e);
       }
     });
   }
@@ -267,6 +259,8 @@ public class SideBarPanel extends JPanel {
   }
 
   private static class DateTreeNode extends DefaultMutableTreeNode {
+    private static final long serialVersionUID = 1L;
+
     private final LocalDate date;
     private final int entryCount;
 
@@ -286,6 +280,8 @@ public class SideBarPanel extends JPanel {
   }
 
   private static class FavoriteTreeNode extends DefaultMutableTreeNode {
+    private static final long serialVersionUID = 1L;
+
     private final int favoriteCount;
 
     public FavoriteTreeNode(String text, int favoriteCount) {
@@ -299,6 +295,7 @@ public class SideBarPanel extends JPanel {
   }
 
   private class DateTreeCellRenderer extends DefaultTreeCellRenderer {
+    private static final long serialVersionUID = 1L;
 
     @Override
     public Component getTreeCellRendererComponent(JTree tree, Object value,
@@ -1,71 +1,234 @@
 package Clipper.model;
 
+import Clipper.util.Log;
+import Clipper.util.Metrics;
+
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class ClipboardData {
-  private final List<ClipboardEntry> entries;
-  private final Set<String> duplicateCheckSet;
+  // 新しい順（同時刻の場合はIDで順序を決める）
+  private static final Comparator<ClipboardEntry> NEWEST_FIRST = Comparator
+      .comparingLong(ClipboardEntry::getEpochMillis).reversed()
+      .thenComparing(ClipboardEntry::getId);
+
+  private final NavigableSet<ClipboardEntry> entries;
+  private final Map<String, ClipboardEntry> entriesById;
+  // 本文そのものではなく128bitハッシュ→IDで重複を判定する（変更は同期メソッド内のみ）
+  private final Map<ContentHash, String> duplicateIndex;
+  private final SearchIndex searchIndex;
+  // 日付→その日のエントリ（新しい日付順）。日付別の表示・集計はここを引くだけで済む
+  private final NavigableMap<LocalDate, NavigableSet<ClipboardEntry>> dateBuckets;
+  // 0の場合は履歴全体、正の場合は新しい方からこの件数の範囲でのみ重複を判定する
+  private volatile int duplicateWindow;
+
+  // お気に入り以外のエントリ（末尾が最も古い）。保持上限を超えた分はここの末尾から追い出す。
+  // 変更は同期メソッド内のみ
+  private final NavigableSet<ClipboardEntry> evictionQueue;
+  private volatile RetentionPolicy retentionPolicy;
+  // ヒープ上の大きさの見積もりと、保持上限の判定に使う見積もり。後者は保存時に退避される大きな本文を
+  // プレビュー分だけで数え、退避が済む前の一時的な大きさで他のエントリを追い出さないようにする
+  private long residentBytes;
+  private long budgetBytes;
+  private EvictionListener evictionListener;
+
+  private final Metrics.Histogram searchLatency = Metrics.getDefault().histogram("search.latency");
+  private final Metrics.Counter evictedEntries = Metrics.getDefault().counter("retention.evicted");
+
+  // 保持上限によりメモリから外されたエントリの通知先（ディスク上のデータはそのまま残る）
+  public interface EvictionListener {
+    void onEntriesEvicted(List<ClipboardEntry> evicted);
+  }
 
   public ClipboardData() {
-    this.entries = new CopyOnWriteArrayList<>();
-    this.duplicateCheckSet = Collections.synchronizedSet(new HashSet<>());
+    this(0);
+  }
+
+  public ClipboardData(int duplicateWindow) {
+    this(duplicateWindow, RetentionPolicy.unlimited());
   }
 
-  public synchronized boolean addEntry(String text) {
+  public ClipboardData(RetentionPolicy retentionPolicy) {
+    this(0, retentionPolicy);
+  }
+
+  public ClipboardData(int duplicateWindow, RetentionPolicy retentionPolicy) {
+    this.entries = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    this.entriesById = new ConcurrentHashMap<>();
+    this.duplicateIndex = new HashMap<>();
+    this.searchIndex = new SearchIndex(NEWEST_FIRST);
+    this.dateBuckets = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+    this.duplicateWindow = duplicateWindow;
+    this.evictionQueue = new TreeSet<>(NEWEST_FIRST);
+    this.retentionPolicy = retentionPolicy;
+  }
+
+  public synchronized void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+    this.retentionPolicy = retentionPolicy;
+    notifyEvicted(evictOverflow());
+  }
+
+  public RetentionPolicy getRetentionPolicy() {
+    return retentionPolicy;
+  }
+
+  public synchronized void setEvictionListener(EvictionListener listener) {
+    this.evictionListener = listener;
+  }
+
+  public synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  public void setDuplicateWindow(int duplicateWindow) {
+    this.duplicateWindow = duplicateWindow;
+  }
+
+  public int getDuplicateWindow() {
+    return duplicateWindow;
+  }
+
+  // 追加したエントリを返す。空や重複で追加しなかった場合はnull
+  // （他のスレッドも追加・マージするので、直後のgetLatestEntryが同じエントリとは限らない）
+  public synchronized ClipboardEntry addEntry(String text) {
     if (text == null || text.trim().isEmpty()) {
-      return false;
+      return null;
     }
 
     String cleanedText = text.trim();
+    ClipboardEntry entry = new ClipboardEntry(cleanedText);
 
-    if (duplicateCheckSet.contains(cleanedText)) {
-      return false;
+    if (isDuplicate(entry)) {
+      return null;
     }
 
-    ClipboardEntry entry = new ClipboardEntry(cleanedText);
-    entries.add(0, entry);
-    duplicateCheckSet.add(cleanedText);
+    insert(entry);
+    notifyEvicted(evictOverflow());
 
-    System.out.println("エントリ追加成功: 総数=" + entries.size() + ", お気に入り数=" + getFavoriteEntries().size());
-    return true;
+    Log.debug("エントリ追加成功: 総数=", size());
+    return entry;
   }
 
   public synchronized boolean removeEntry(String id) {
-    ClipboardEntry toRemove = null;
-    for (ClipboardEntry entry : entries) {
-      if (entry.getId().equals(id)) {
-        toRemove = entry;
-        break;
-      }
+    ClipboardEntry toRemove = entriesById.remove(id);
+    if (toRemove == null) {
+      return false;
     }
 
-    if (toRemove != null) {
-      entries.remove(toRemove);
-      duplicateCheckSet.remove(toRemove.getText());
-      return true;
+    entries.remove(toRemove);
+    duplicateIndex.remove(toRemove.getContentHash(), toRemove.getId());
+    searchIndex.remove(toRemove);
+    removeFromDateBucket(toRemove);
+    evictionQueue.remove(toRemove);
+    residentBytes -= toRemove.residentBytes;
+    budgetBytes -= toRemove.budgetBytes;
+    if (toRemove.owner == this) {
+      toRemove.owner = null;
     }
-    return false;
+    return true;
   }
 
-  public synchronized boolean toggleFavorite(String id) {
+  // 本文を外部ファイルに退避したエントリの見積もりを、ヒープに残ったプレビューの分で付け直す
+  synchronized void onEntrySpilled(ClipboardEntry entry) {
+    if (entriesById.get(entry.getId()) != entry) {
+      return;
+    }
+    residentBytes -= entry.residentBytes;
+    budgetBytes -= entry.budgetBytes;
+    chargeMemory(entry);
+  }
+
+  private void chargeMemory(ClipboardEntry entry) {
+    entry.residentBytes = entry.estimateMemoryBytes();
+    entry.budgetBytes = entry.estimateRetainedBytes();
+    residentBytes += entry.residentBytes;
+    budgetBytes += entry.budgetBytes;
+  }
+
+  public synchronized boolean isDuplicate(String text) {
+    return text != null && isDuplicate(new ClipboardEntry(text.trim()));
+  }
+
+  // 直近の件数に関係なく、同じ内容のエントリがメモリ上にあるか（インポート時の重複除外用）
+  public synchronized boolean containsSameContent(ClipboardEntry candidate) {
+    return findSameContent(candidate) != null;
+  }
+
+  private ClipboardEntry findSameContent(ClipboardEntry candidate) {
+    String existingId = duplicateIndex.get(candidate.getContentHash());
+    if (existingId == null) {
+      return null;
+    }
+
+    ClipboardEntry existing = entriesById.get(existingId);
+    // ハッシュが衝突しただけの別内容を重複扱いしないよう本文でも確認する
+    if (existing == null || existing.getTextLength() != candidate.getTextLength()
+        || !existing.getText().equals(candidate.getText())) {
+      return null;
+    }
+    return existing;
+  }
+
+  private boolean isDuplicate(ClipboardEntry candidate) {
+    ClipboardEntry existing = findSameContent(candidate);
+    if (existing == null) {
+      return false;
+    }
+
+    int window = duplicateWindow;
+    if (window <= 0) {
+      return true;
+    }
+
+    int rank = 0;
     for (ClipboardEntry entry : entries) {
-      if (entry.getId().equals(id)) {
-        entry.setFavorite(!entry.isFavorite());
+      if (rank++ >= window) {
+        return false;
+      }
+      if (entry == existing) {
         return true;
       }
     }
     return false;
   }
 
+  public synchronized boolean toggleFavorite(String id) {
+    ClipboardEntry entry = entriesById.get(id);
+    return entry != null && setFavorite(id, !entry.isFavorite());
+  }
+
+  // 他のインスタンスでの変更を反映する場合など、状態を指定して設定する。変化しなかった場合はfalse
+  public synchronized boolean setFavorite(String id, boolean favorite) {
+    ClipboardEntry entry = entriesById.get(id);
+    if (entry == null || entry.isFavorite() == favorite) {
+      return false;
+    }
+
+    entry.setFavorite(favorite);
+    if (entry.isFavorite()) {
+      evictionQueue.remove(entry);
+    } else {
+      evictionQueue.add(entry);
+      notifyEvicted(evictOverflow());
+    }
+    return true;
+  }
+
   public ClipboardEntry getEntry(String id) {
-    return entries.stream()
-        .filter(entry -> entry.getId().equals(id))
-        .findFirst()
-        .orElse(null);
+    return entriesById.get(id);
+  }
+
+  public ClipboardEntry getLatestEntry() {
+    try {
+      return entries.first();
+    } catch (NoSuchElementException e) {
+      return null;
+    }
   }
 
   public List<ClipboardEntry> getAllEntries() {
@@ -73,9 +236,13 @@ public class ClipboardData {
   }
 
   public List<ClipboardEntry> getEntriesByDate(LocalDate date) {
-    return entries.stream()
-        .filter(entry -> entry.getTimestamp().toLocalDate().equals(date))
-        .collect(Collectors.toList());
+    NavigableSet<ClipboardEntry> bucket = dateBuckets.get(date);
+    return bucket != null ? new ArrayList<>(bucket) : new ArrayList<>();
+  }
+
+  public int countEntriesByDate(LocalDate date) {
+    NavigableSet<ClipboardEntry> bucket = dateBuckets.get(date);
+    return bucket != null ? bucket.size() : 0;
   }
 
   public List<ClipboardEntry> getFavoriteEntries() {
@@ -89,42 +256,99 @@ public class ClipboardData {
       return getAllEntries();
     }
 
+    long start = System.nanoTime();
+    List<ClipboardEntry> results = searchNonEmpty(query);
+    searchLatency.recordSince(start);
+    return results;
+  }
+
+  private List<ClipboardEntry> searchNonEmpty(String query) {
     String lowerQuery = query.toLowerCase().trim();
+    if (SearchIndex.isIndexable(lowerQuery)) {
+      return searchIndex.search(lowerQuery);
+    }
+
+    // 1文字のクエリはインデックスを使わず走査する
     return entries.stream()
-        .filter(entry -> entry.getText().toLowerCase().contains(lowerQuery))
+        .filter(entry -> SearchIndex.containsIgnoreCase(entry.getSearchableText(), lowerQuery))
         .collect(Collectors.toList());
   }
 
   public Map<LocalDate, List<ClipboardEntry>> getEntriesGroupedByDate() {
-    return entries.stream()
-        .collect(Collectors.groupingBy(
-            entry -> entry.getTimestamp().toLocalDate(),
-            LinkedHashMap::new,
-            Collectors.toList()));
+    Map<LocalDate, List<ClipboardEntry>> grouped = new LinkedHashMap<>();
+    for (Map.Entry<LocalDate, NavigableSet<ClipboardEntry>> bucket : dateBuckets.entrySet()) {
+      List<ClipboardEntry> entriesForDate = new ArrayList<>(bucket.getValue());
+      if (!entriesForDate.isEmpty()) {
+        grouped.put(bucket.getKey(), entriesForDate);
+      }
+    }
+    return grouped;
   }
 
+  // 新しい日付順の、エントリが存在する日付の一覧
+  public List<LocalDate> getDates() {
+    return new ArrayList<>(dateBuckets.keySet());
+  }
+
+  // メモリ上のエントリのみを対象にする。ディスク上はFileManagerがパーティション単位で破棄する
   public synchronized int cleanupOldEntries(int daysToKeep) {
-    LocalDateTime cutoffDate = LocalDateTime.now().minusDays(daysToKeep);
-    List<ClipboardEntry> toRemove = entries.stream()
-        .filter(entry -> entry.getTimestamp().isBefore(cutoffDate))
-        .filter(entry -> !entry.isFavorite())
-        .collect(Collectors.toList());
+    long cutoffMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(daysToKeep);
+    int removed = 0;
+    // 古い順に見て、期限内のエントリに当たったところで止める
+    while (!evictionQueue.isEmpty() && evictionQueue.last().getEpochMillis() < cutoffMillis) {
+      removeEntry(evictionQueue.last().getId());
+      removed++;
+    }
+    return removed;
+  }
 
-    for (ClipboardEntry entry : toRemove) {
-      entries.remove(entry);
-      duplicateCheckSet.remove(entry.getText());
+  // 保持上限を超えている間、お気に入り以外の最も古いエントリから外していく。
+  // 挿入のたびに呼ぶので、1回あたりの処理は超過分だけで済む
+  private List<ClipboardEntry> evictOverflow() {
+    List<ClipboardEntry> evicted = new ArrayList<>();
+    RetentionPolicy policy = retentionPolicy;
+    long now = System.currentTimeMillis();
+
+    while (!evictionQueue.isEmpty()) {
+      ClipboardEntry oldest = evictionQueue.last();
+      // 最新のエントリは上限を超えていても残す
+      if (oldest == entries.first()) {
+        break;
+      }
+      if (!policy.exceedsCapacity(size(), budgetBytes) && !policy.isExpired(oldest, now)) {
+        break;
+      }
+      removeEntry(oldest.getId());
+      evicted.add(oldest);
     }
+    return evicted;
+  }
 
-    return toRemove.size();
+  // mergeEntriesで保留した保持上限をまとめて適用する（起動時の一括読み込みの後など）
+  public synchronized void applyRetention() {
+    notifyEvicted(evictOverflow());
+  }
+
+  private void notifyEvicted(List<ClipboardEntry> evicted) {
+    evictedEntries.add(evicted.size());
+    if (!evicted.isEmpty() && evictionListener != null) {
+      evictionListener.onEntriesEvicted(evicted);
+    }
   }
 
   public synchronized void clear() {
     entries.clear();
-    duplicateCheckSet.clear();
+    entriesById.clear();
+    duplicateIndex.clear();
+    searchIndex.clear();
+    dateBuckets.clear();
+    evictionQueue.clear();
+    residentBytes = 0;
+    budgetBytes = 0;
   }
 
   public int size() {
-    return entries.size();
+    return entriesById.size();
   }
 
   public boolean isEmpty() {
@@ -134,11 +358,22 @@ public class ClipboardData {
   public synchronized void loadEntries(List<ClipboardEntry> loadedEntries) {
     clear();
     for (ClipboardEntry entry : loadedEntries) {
-      entries.add(entry);
-      duplicateCheckSet.add(entry.getText());
+      insert(entry);
     }
+    notifyEvicted(evictOverflow());
+  }
 
-    entries.sort((e1, e2) -> e2.getTimestamp().compareTo(e1.getTimestamp()));
+  // 後から読み込んだパーティションを追加する。既にメモリにあるエントリ（編集済みの可能性がある）は上書きしない。
+  // 利用者が明示的に開いた古い日付を直後に追い出さないよう、保持上限は次の追加時に適用する
+  public synchronized int mergeEntries(List<ClipboardEntry> loadedEntries) {
+    int added = 0;
+    for (ClipboardEntry entry : loadedEntries) {
+      if (!entriesById.containsKey(entry.getId())) {
+        insert(entry);
+        added++;
+      }
+    }
+    return added;
   }
 
   // エントリを復元するメソッド（削除のロールバック用）
@@ -148,18 +383,49 @@ public class ClipboardData {
     }
 
     // 既に存在する場合は何もしない
-    for (ClipboardEntry existing : entries) {
-      if (existing.getId().equals(entry.getId())) {
-        return false;
-      }
+    if (entriesById.containsKey(entry.getId())) {
+      return false;
     }
 
-    entries.add(entry);
-    duplicateCheckSet.add(entry.getText());
+    // 並び順はセット側で保たれるので再ソートは不要
+    insert(entry);
+    return true;
+  }
 
-    // タイムスタンプ順にソート
-    entries.sort((e1, e2) -> e2.getTimestamp().compareTo(e1.getTimestamp()));
+  private void insert(ClipboardEntry entry) {
+    ClipboardEntry previous = entriesById.put(entry.getId(), entry);
+    if (previous != null) {
+      entries.remove(previous);
+      duplicateIndex.remove(previous.getContentHash(), previous.getId());
+      searchIndex.remove(previous);
+      removeFromDateBucket(previous);
+      evictionQueue.remove(previous);
+      residentBytes -= previous.residentBytes;
+      budgetBytes -= previous.budgetBytes;
+    }
+    entries.add(entry);
+    dateBuckets.computeIfAbsent(entry.getDate(), d -> new ConcurrentSkipListSet<>(NEWEST_FIRST)).add(entry);
+    if (!entry.isFavorite()) {
+      evictionQueue.add(entry);
+    }
+    entry.owner = this;
+    chargeMemory(entry);
+    // 同じ内容が複数ある場合は新しい方を重複判定に使う（古いパーティションを後から読み込んだ場合）
+    String currentId = duplicateIndex.get(entry.getContentHash());
+    ClipboardEntry current = currentId != null ? entriesById.get(currentId) : null;
+    if (current == null || NEWEST_FIRST.compare(entry, current) <= 0) {
+      duplicateIndex.put(entry.getContentHash(), entry.getId());
+    }
+    searchIndex.add(entry);
+  }
 
-    return true;
+  private void removeFromDateBucket(ClipboardEntry entry) {
+    NavigableSet<ClipboardEntry> bucket = dateBuckets.get(entry.getDate());
+    if (bucket != null) {
+      bucket.remove(entry);
+      if (bucket.isEmpty()) {
+        dateBuckets.remove(entry.getDate());
+      }
+    }
   }
 }
@@ -1,42 +1,180 @@
 package Clipper.model;
 
+import Clipper.util.DateUtil;
+
+import java.lang.ref.SoftReference;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 public class ClipboardEntry {
   private String id;
-  private String text;
-  private LocalDateTime timestamp;
+  // spillはFileManagerのスレッドで、読み取りはEDTや検索から行われるので、本文まわりはvolatileにする
+  private volatile String text;
+  // 時刻はエポックミリ秒で持ち、日付と表示用の文字列は初回に計算して使い回す
+  private long epochMillis;
+  private LocalDate date;
+  private String formattedTimestamp;
   private String source;
   private boolean isFavorite;
+  private volatile ContentHash contentHash;
+
+  // 大きな本文は外部ファイルに退避し、ヒープにはプレビュー・長さ・ハッシュだけを残す
+  public static final String BLOB_CATEGORY_PREFIX = "blob:";
+  // この文字数を超える本文は保存時に外部ファイルに退避する
+  public static final int SPILL_THRESHOLD_CHARS = Integer.getInteger("clipper.blob.threshold", 64 * 1024);
+  private int textLength;
+  private volatile String previewText;
+  private volatile Supplier<String> blobLoader;
+  private volatile SoftReference<String> loadedText;
+
+  // オブジェクト本体・各インデックスの参照など、本文以外に掛かる1エントリあたりの概算
+  private static final int ENTRY_OVERHEAD_BYTES = 256;
+  // ClipboardDataが計上しているヒープ上の見積もりと保持上限用の見積もり
+  // （ClipboardDataのロック内でのみ読み書きする）。退避で大きさが変わった時はownerが付け直す
+  long residentBytes;
+  long budgetBytes;
+  // 登録先のClipboardData。spillは本文を手放してからこれを読み、ClipboardDataは設定してから見積もるので、
+  // 登録と退避が重なってもどちらかで退避後の大きさが計上される
+  volatile ClipboardData owner;
+  // 登録先の検索インデックス（エントリのロック内でSearchIndexが設定する）
+  SearchIndex searchIndex;
 
   public ClipboardEntry(String text) {
     this.id = UUID.randomUUID().toString();
     this.text = text;
-    this.timestamp = LocalDateTime.now();
+    this.textLength = text == null ? 0 : text.length();
+    this.epochMillis = System.currentTimeMillis();
     this.source = "Unknown";
     this.isFavorite = false;
   }
 
   public ClipboardEntry(String id, LocalDateTime timestamp, boolean isFavorite, String text) {
+    this(id, DateUtil.toEpochMillis(timestamp), isFavorite, text);
+  }
+
+  public ClipboardEntry(String id, long epochMillis, boolean isFavorite, String text) {
     this.id = id;
     this.text = text;
-    this.timestamp = timestamp;
+    this.textLength = text == null ? 0 : text.length();
+    this.epochMillis = epochMillis;
+    this.source = "Unknown";
+    this.isFavorite = isFavorite;
+  }
+
+  // 本文が外部ファイルに退避済みのエントリを復元する場合のコンストラクタ
+  public ClipboardEntry(String id, long epochMillis, boolean isFavorite,
+      String previewText, int textLength, ContentHash contentHash, Supplier<String> blobLoader) {
+    this.id = id;
+    this.epochMillis = epochMillis;
     this.source = "Unknown";
     this.isFavorite = isFavorite;
+    this.previewText = previewText;
+    this.textLength = textLength;
+    this.contentHash = contentHash;
+    this.blobLoader = blobLoader;
   }
 
   public String getId() {
     return id;
   }
 
+  // 退避済みの場合は必要になった時点で読み込み、メモリが逼迫したら解放できるよう弱く保持する
   public String getText() {
-    return text;
+    String current = text;
+    if (current != null) {
+      return current;
+    }
+
+    // spillはtextをnullにする前にblobLoaderを設定するので、ここではblobLoaderが必ず見える
+    SoftReference<String> loaded = loadedText;
+    String cached = loaded != null ? loaded.get() : null;
+    if (cached == null) {
+      cached = blobLoader.get();
+      loadedText = new SoftReference<>(cached);
+    }
+    return cached;
+  }
+
+  public int getTextLength() {
+    return textLength;
+  }
+
+  public boolean isSpilled() {
+    return text == null && blobLoader != null;
+  }
+
+  // 検索インデックス用のテキスト。退避済みの場合は全文を読み込まずプレビューだけを対象にする
+  public String getSearchableText() {
+    String current = text;
+    return current != null ? current : previewText;
+  }
+
+  // 本文を外部ファイルへ書き出した後に呼び、ヒープ上の本文を手放す
+  public void spill(Supplier<String> loader) {
+    synchronized (this) {
+      if (isSpilled()) {
+        return;
+      }
+      String indexedText = text;
+      getContentHash();
+      previewText = getPreviewText();
+      blobLoader = loader;
+      text = null;
+      // 全文で作った検索インデックスの項目を外し、プレビューで登録し直す
+      if (searchIndex != null) {
+        searchIndex.reindex(this, indexedText, previewText);
+      }
+    }
+    // 手放した本文の分をメモリの計上から外す。ClipboardDataのロックはエントリより先に取る決まりなので、
+    // エントリのロックを外してから呼ぶ
+    ClipboardData current = owner;
+    if (current != null) {
+      current.onEntrySpilled(this);
+    }
+  }
+
+  // ヒープ上の大きさの概算。退避済みの本文は数えない
+  public long estimateMemoryBytes() {
+    int residentChars = text == null ? getPreviewText().length() : textLength;
+    return ENTRY_OVERHEAD_BYTES + 2L * residentChars;
+  }
+
+  // 保存が済んだ後もヒープに残る大きさの概算。これから退避される本文はプレビューだけを数える
+  public long estimateRetainedBytes() {
+    return shouldSpill() ? ENTRY_OVERHEAD_BYTES + 2L * getPreviewText().length() : estimateMemoryBytes();
+  }
+
+  public boolean shouldSpill() {
+    return !isSpilled() && textLength > SPILL_THRESHOLD_CHARS;
   }
 
   public LocalDateTime getTimestamp() {
-    return timestamp;
+    return DateUtil.fromEpochMillis(epochMillis);
+  }
+
+  public long getEpochMillis() {
+    return epochMillis;
+  }
+
+  public LocalDate getDate() {
+    if (date == null) {
+      date = DateUtil.toLocalDate(epochMillis);
+    }
+    return date;
+  }
+
+  // 本文は変更されないので、初回に計算した値を使い回す
+  public ContentHash getContentHash() {
+    ContentHash hash = contentHash;
+    if (hash == null) {
+      String current = text;
+      // spillはハッシュを計算してから本文を手放すので、本文がnullならハッシュは設定済み
+      hash = current != null ? ContentHash.of(current) : contentHash;
+      contentHash = hash;
+    }
+    return hash;
   }
 
   public String getSource() {
@@ -56,51 +194,87 @@ public class ClipboardEntry {
   }
 
   public String getPreviewText() {
+    String cached = previewText;
+    if (cached != null)
+      return cached;
+    // spillと並行して呼ばれても途中でnullにならないよう、1回だけ読む
+    String text = this.text;
     if (text == null)
-      return "";
+      return previewText != null ? previewText : "";
 
-    String[] lines = text.split("\n");
+    // 全体を行分割せず、先頭から必要な行だけを切り出す
     StringBuilder preview = new StringBuilder();
 
     int maxLines = 2;
-    for (int i = 0; i < Math.min(maxLines, lines.length); i++) {
+    int lineStart = 0;
+    for (int i = 0; i < maxLines && (i == 0 || lineStart < text.length()); i++) {
+      int lineEnd = text.indexOf('\n', lineStart);
+      if (lineEnd < 0) {
+        lineEnd = text.length();
+      }
+
       if (i > 0)
         preview.append("\n");
-      String line = lines[i];
-      if (line.length() > 50) {
-        preview.append(line.substring(0, 47)).append("...");
+      if (lineEnd - lineStart > 50) {
+        preview.append(text, lineStart, lineStart + 47).append("...");
       } else {
-        preview.append(line);
+        preview.append(text, lineStart, lineEnd);
       }
+      lineStart = lineEnd + 1;
     }
 
-    if (lines.length > maxLines) {
+    if (lineStart < text.length()) {
       preview.append("...");
     }
 
-    return preview.toString();
+    previewText = preview.toString();
+    return previewText;
+  }
+
+  public int getPreviewLineCount() {
+    String preview = getPreviewText();
+    int lines = 1;
+    for (int i = 0; i < preview.length(); i++) {
+      if (preview.charAt(i) == '\n') {
+        lines++;
+      }
+    }
+    return lines;
   }
 
   public String getFormattedTimestamp() {
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
-    return timestamp.format(formatter);
+    if (formattedTimestamp == null) {
+      formattedTimestamp = getTimestamp().format(DateUtil.SHORT_TIME_FORMATTER);
+    }
+    return formattedTimestamp;
   }
 
   public String[] toCsvArray() {
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    String timestampText = DateUtil.formatTimestamp(epochMillis);
+    String current = text;
+    if (current == null) {
+      // 退避済みの場合は本文の代わりにプレビューを書き、カテゴリ欄にハッシュと長さを記録する
+      return new String[] {
+          id,
+          timestampText,
+          String.valueOf(isFavorite),
+          BLOB_CATEGORY_PREFIX + getContentHash().toHex() + ":" + textLength,
+          previewText
+      };
+    }
     return new String[] {
         id,
-        timestamp.format(formatter),
+        timestampText,
         String.valueOf(isFavorite),
         "default",
-        text
+        current
     };
   }
 
   @Override
   public String toString() {
     return String.format("ClipboardEntry{id='%s', timestamp=%s, text='%s'}",
-        id, timestamp, getPreviewText());
+        id, getTimestamp(), getPreviewText());
   }
 
   @Override
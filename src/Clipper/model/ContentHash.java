@@ -0,0 +1,72 @@
+package Clipper.model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// 本文のSHA-256を128bitに切り詰めたハッシュ。重複判定やファイル名に使う
+public final class ContentHash {
+
+  private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256が利用できません", e);
+    }
+  });
+
+  private final long high;
+  private final long low;
+
+  public ContentHash(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  public static ContentHash of(String text) {
+    MessageDigest digest = DIGEST.get();
+    digest.reset();
+    byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+    return new ContentHash(toLong(hash, 0), toLong(hash, 8));
+  }
+
+  public static ContentHash fromHex(String hex) {
+    if (hex == null || hex.length() != 32) {
+      throw new IllegalArgumentException("不正なハッシュ値です: " + hex);
+    }
+    return new ContentHash(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+        Long.parseUnsignedLong(hex.substring(16), 16));
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (bytes[offset + i] & 0xFF);
+    }
+    return value;
+  }
+
+  public String toHex() {
+    return String.format("%016x%016x", high, low);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof ContentHash))
+      return false;
+    ContentHash that = (ContentHash) obj;
+    return high == that.high && low == that.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(high ^ low);
+  }
+
+  @Override
+  public String toString() {
+    return toHex();
+  }
+}
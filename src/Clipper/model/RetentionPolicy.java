@@ -0,0 +1,59 @@
+package Clipper.model;
+
+import java.util.concurrent.TimeUnit;
+
+// メモリ上に保持する履歴の上限。お気に入りは上限に関係なく保持する。
+// 各上限は0以下で無制限。判定を変えたい場合はサブクラスで上書きする
+public class RetentionPolicy {
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+
+  public RetentionPolicy(int maxEntries, long maxBytes, long maxAgeMillis) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  public static RetentionPolicy unlimited() {
+    return new RetentionPolicy(0, 0, 0);
+  }
+
+  public static RetentionPolicy defaults() {
+    return new RetentionPolicy(
+        Integer.getInteger("clipper.retention.maxEntries", 10_000),
+        Long.getLong("clipper.retention.maxBytes", 64L * 1024 * 1024),
+        TimeUnit.DAYS.toMillis(Long.getLong("clipper.retention.maxAgeDays", 0)));
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getMaxAgeMillis() {
+    return maxAgeMillis;
+  }
+
+  public boolean exceedsCapacity(int entryCount, long residentBytes) {
+    return (maxEntries > 0 && entryCount > maxEntries)
+        || (maxBytes > 0 && residentBytes > maxBytes);
+  }
+
+  public boolean isExpired(ClipboardEntry entry, long nowMillis) {
+    if (maxAgeMillis <= 0) {
+      return false;
+    }
+    return nowMillis - entry.getEpochMillis() > maxAgeMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RetentionPolicy{maxEntries=%d, maxBytes=%d, maxAgeMillis=%d}",
+        maxEntries, maxBytes, maxAgeMillis);
+  }
+}
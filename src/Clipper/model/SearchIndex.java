@@ -0,0 +1,130 @@
+package Clipper.model;
+
+import java.util.*;
+
+// エントリ本文の文字bigramによる転置インデックス。
+// 空白で区切られない日本語でも部分一致検索ができるよう、単語ではなく2文字単位で索引を作る
+// （外部ファイルに退避した大きな本文はプレビュー部分のみが対象）
+public class SearchIndex {
+
+  private final Comparator<ClipboardEntry> order;
+  private final Map<Integer, NavigableSet<ClipboardEntry>> postings = new HashMap<>();
+
+  public SearchIndex(Comparator<ClipboardEntry> order) {
+    this.order = order;
+  }
+
+  // エントリのロック→インデックスのロックの順に取る（ClipboardEntry.spillと同じ順）。
+  // 登録中のエントリが退避されると、spillからreindexが呼ばれて全文のbigramが外れる
+  public void add(ClipboardEntry entry) {
+    synchronized (entry) {
+      synchronized (this) {
+        addPostings(entry, bigramsOf(entry.getSearchableText()));
+        entry.searchIndex = this;
+      }
+    }
+  }
+
+  public void remove(ClipboardEntry entry) {
+    synchronized (entry) {
+      synchronized (this) {
+        removePostings(entry, bigramsOf(entry.getSearchableText()));
+        if (entry.searchIndex == this) {
+          entry.searchIndex = null;
+        }
+      }
+    }
+  }
+
+  // 退避で検索対象が全文からプレビューに変わったエントリを登録し直す（呼び出し側がentryのロックを持つ）。
+  // clearの後など、既に登録されていない場合は何もしない
+  synchronized void reindex(ClipboardEntry entry, String oldText, String newText) {
+    if (removePostings(entry, bigramsOf(oldText))) {
+      addPostings(entry, bigramsOf(newText));
+    }
+  }
+
+  private void addPostings(ClipboardEntry entry, Set<Integer> bigrams) {
+    for (int bigram : bigrams) {
+      postings.computeIfAbsent(bigram, k -> new TreeSet<>(order)).add(entry);
+    }
+  }
+
+  private boolean removePostings(ClipboardEntry entry, Set<Integer> bigrams) {
+    boolean removed = false;
+    for (int bigram : bigrams) {
+      NavigableSet<ClipboardEntry> posting = postings.get(bigram);
+      if (posting != null && posting.remove(entry)) {
+        removed = true;
+        if (posting.isEmpty()) {
+          postings.remove(bigram);
+        }
+      }
+    }
+    return removed;
+  }
+
+  public synchronized void clear() {
+    postings.clear();
+  }
+
+  public static boolean isIndexable(String query) {
+    return query != null && query.length() >= 2;
+  }
+
+  // 2文字以上のクエリを含むエントリを新しい順で返す
+  public synchronized List<ClipboardEntry> search(String query) {
+    String lowerQuery = query.toLowerCase(Locale.ROOT);
+    Set<Integer> queryBigrams = bigramsOf(lowerQuery);
+
+    List<NavigableSet<ClipboardEntry>> candidates = new ArrayList<>(queryBigrams.size());
+    for (int bigram : queryBigrams) {
+      NavigableSet<ClipboardEntry> posting = postings.get(bigram);
+      if (posting == null) {
+        return new ArrayList<>();
+      }
+      candidates.add(posting);
+    }
+
+    // 最も短いポスティングを新しい順に走査し、他のポスティングとの共通部分を取る
+    candidates.sort(Comparator.comparingInt(Set::size));
+    NavigableSet<ClipboardEntry> smallest = candidates.get(0);
+
+    List<ClipboardEntry> results = new ArrayList<>();
+    for (ClipboardEntry entry : smallest) {
+      boolean inAll = true;
+      for (int i = 1; i < candidates.size() && inAll; i++) {
+        inAll = candidates.get(i).contains(entry);
+      }
+
+      // bigramが揃っていても連続しているとは限らないので本文で確認する
+      if (inAll && containsIgnoreCase(entry.getSearchableText(), lowerQuery)) {
+        results.add(entry);
+      }
+    }
+    return results;
+  }
+
+  static boolean containsIgnoreCase(String text, String lowerQuery) {
+    int max = text.length() - lowerQuery.length();
+    for (int i = 0; i <= max; i++) {
+      if (text.regionMatches(true, i, lowerQuery, 0, lowerQuery.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Set<Integer> bigramsOf(String text) {
+    Set<Integer> bigrams = new HashSet<>();
+    if (text == null) {
+      return bigrams;
+    }
+
+    String lower = text.toLowerCase(Locale.ROOT);
+    for (int i = 0; i + 1 < lower.length(); i++) {
+      bigrams.add((lower.charAt(i) << 16) | lower.charAt(i + 1));
+    }
+    return bigrams;
+  }
+}
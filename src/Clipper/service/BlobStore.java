@@ -0,0 +1,68 @@
+package Clipper.service;
+
+import Clipper.model.ContentHash;
+import Clipper.util.CsvUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// 大きなクリップボード本文を内容のハッシュ名で保存する（blobs/ab/abcdef....txt）
+// 同じ内容は同じファイルになるため、書き込みは一度だけで済む
+public class BlobStore {
+
+  private final Path blobDirectory;
+
+  public BlobStore(Path blobDirectory) {
+    this.blobDirectory = blobDirectory;
+  }
+
+  public Path getBlobPath(ContentHash hash) {
+    String hex = hash.toHex();
+    return blobDirectory.resolve(hex.substring(0, 2)).resolve(hex + ".txt");
+  }
+
+  public void write(ContentHash hash, String text) throws IOException {
+    Path path = getBlobPath(hash);
+    if (Files.exists(path)) {
+      return;
+    }
+
+    Files.createDirectories(path.getParent());
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.writeString(temp, text, StandardCharsets.UTF_8);
+    CsvUtil.moveAtomically(temp, path);
+  }
+
+  public String read(ContentHash hash) {
+    try {
+      return Files.readString(getBlobPath(hash), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException("本文ファイルの読み込みに失敗しました: " + hash, e);
+    }
+  }
+
+  // どのエントリからも参照されていないファイルを削除する
+  public int deleteUnreferenced(Set<ContentHash> referenced) throws IOException {
+    if (!Files.isDirectory(blobDirectory)) {
+      return 0;
+    }
+
+    int deleted = 0;
+    try (Stream<Path> files = Files.walk(blobDirectory)) {
+      for (Path path : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+        String name = path.getFileName().toString();
+        boolean isBlob = name.endsWith(".txt") && name.length() == 36;
+        if (!isBlob || !referenced.contains(ContentHash.fromHex(name.substring(0, 32)))) {
+          Files.deleteIfExists(path);
+          deleted++;
+        }
+      }
+    }
+    return deleted;
+  }
+}
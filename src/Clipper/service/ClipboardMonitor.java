@@ -2,6 +2,8 @@ package Clipper.service;
 
 import Clipper.model.ClipboardData;
 import Clipper.model.ClipboardEntry;
+import Clipper.util.Log;
+import Clipper.util.Metrics;
 
 import javax.swing.*;
 import java.awt.Toolkit;
@@ -9,9 +11,6 @@ import java.awt.datatransfer.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClipboardMonitor implements ClipboardOwner {
@@ -22,11 +21,24 @@ public class ClipboardMonitor implements ClipboardOwner {
   private final AtomicBoolean isMonitoring;
   private final Clipboard systemClipboard;
 
-  private static final int POLLING_INTERVAL_MS = 500;
-  private String lastClipboardContent;
+  // 変化がない間はポーリング間隔を倍々に延ばし、変化を検出したら最短に戻す
+  private static final int MIN_POLLING_INTERVAL_MS = 250;
+  private static final int MAX_POLLING_INTERVAL_MS = 2000;
+
+  // 長さとハッシュの指紋で大半の変化を安く判定し、一致した場合だけ前回の内容と全体を比較する
+  private String lastContent;
+  private int lastContentLength;
+  private int lastContentHash;
+  private volatile long nextPollDelayMs = MIN_POLLING_INTERVAL_MS;
+  private final FlavorListener flavorListener = e -> requestImmediateCheck();
 
   private ClipboardChangeListener changeListener;
 
+  private final Metrics.Counter entriesCaptured = Metrics.getDefault().counter("capture.entries");
+  private final Metrics.Counter duplicatesSkipped = Metrics.getDefault().counter("capture.duplicates");
+  // クリップボードの変化を検出してからジャーナルへの書き込みが終わるまで
+  private final Metrics.Histogram captureToPersist = Metrics.getDefault().histogram("capture.toPersistLatency");
+
   public interface ClipboardChangeListener {
     void onClipboardChanged(ClipboardEntry newEntry);
 
@@ -43,7 +55,8 @@ public class ClipboardMonitor implements ClipboardOwner {
     });
     this.isMonitoring = new AtomicBoolean(false);
     this.systemClipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-    this.lastClipboardContent = "";
+    this.lastContentLength = 0;
+    this.lastContentHash = 0;
 
     initializeLastContent();
   }
@@ -53,11 +66,11 @@ public class ClipboardMonitor implements ClipboardOwner {
       if (systemClipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
         String content = (String) systemClipboard.getData(DataFlavor.stringFlavor);
         if (content != null) {
-          lastClipboardContent = content;
+          rememberContent(content);
         }
       }
     } catch (Exception e) {
-      System.err.println("初期クリップボード内容の取得に失敗: " + e.getMessage());
+      Log.error("初期クリップボード内容の取得に失敗: ", e.getMessage());
     }
   }
 
@@ -68,12 +81,11 @@ public class ClipboardMonitor implements ClipboardOwner {
 
     isMonitoring.set(true);
 
-    scheduler.scheduleWithFixedDelay(this::checkClipboard,
-        0,
-        POLLING_INTERVAL_MS,
-        TimeUnit.MILLISECONDS);
+    // 形式の変化はイベントで即座に拾い、同じ形式のままの変化は適応的なポーリングで拾う
+    systemClipboard.addFlavorListener(flavorListener);
+    scheduler.schedule(this::pollClipboard, 0, TimeUnit.MILLISECONDS);
 
-    System.out.println("クリップボード監視を開始しました");
+    Log.info("クリップボード監視を開始しました");
   }
 
   public void stopMonitoring() {
@@ -82,33 +94,67 @@ public class ClipboardMonitor implements ClipboardOwner {
     }
 
     isMonitoring.set(false);
+    systemClipboard.removeFlavorListener(flavorListener);
     scheduler.shutdown();
 
-    System.out.println("クリップボード監視を停止しました");
+    Log.info("クリップボード監視を停止しました");
   }
 
   public boolean isMonitoring() {
     return isMonitoring.get();
   }
 
-  private void checkClipboard() {
+  private void pollClipboard() {
     if (!isMonitoring.get()) {
       return;
     }
 
+    boolean changed = checkClipboard();
+    nextPollDelayMs = changed
+        ? MIN_POLLING_INTERVAL_MS
+        : Math.min(MAX_POLLING_INTERVAL_MS, nextPollDelayMs * 2);
+
+    if (isMonitoring.get()) {
+      try {
+        scheduler.schedule(this::pollClipboard, nextPollDelayMs, TimeUnit.MILLISECONDS);
+      } catch (java.util.concurrent.RejectedExecutionException e) {
+        // 停止処理と競合した場合は何もしない
+      }
+    }
+  }
+
+  // FlavorListenerや所有権の喪失で変化が分かった場合は、待たずに確認してポーリング間隔を戻す
+  private void requestImmediateCheck() {
+    if (!isMonitoring.get()) {
+      return;
+    }
+
+    nextPollDelayMs = MIN_POLLING_INTERVAL_MS;
+    try {
+      scheduler.execute(this::checkClipboard);
+    } catch (java.util.concurrent.RejectedExecutionException e) {
+      // 停止処理と競合した場合は何もしない
+    }
+  }
+
+  private boolean checkClipboard() {
+    if (!isMonitoring.get()) {
+      return false;
+    }
+
     try {
       if (!systemClipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
-        return;
+        return false;
       }
 
       String currentContent = (String) systemClipboard.getData(DataFlavor.stringFlavor);
 
-      if (currentContent != null &&
-          !currentContent.equals(lastClipboardContent) &&
-          !currentContent.trim().isEmpty()) {
-
-        handleClipboardChange(currentContent);
-        lastClipboardContent = currentContent;
+      if (currentContent != null && !isSameAsLast(currentContent)) {
+        rememberContent(currentContent);
+        if (!currentContent.trim().isEmpty()) {
+          handleClipboardChange(currentContent);
+        }
+        return true;
       }
 
     } catch (UnsupportedFlavorException | java.io.IOException e) {
@@ -117,43 +163,52 @@ public class ClipboardMonitor implements ClipboardOwner {
     } catch (Exception e) {
       notifyError("クリップボード監視エラー: " + e.getMessage());
     }
+    return false;
+  }
+
+  // 長さが違えば本文のハッシュ計算もせずに変化ありと判断できる。
+  // 32bitのハッシュは衝突し得る（"Aa"と"BB"など）ので、指紋が一致しても本文で確かめる
+  private boolean isSameAsLast(String content) {
+    return content.length() == lastContentLength && content.hashCode() == lastContentHash
+        && content.equals(lastContent);
+  }
+
+  private void rememberContent(String content) {
+    lastContent = content;
+    lastContentLength = content.length();
+    lastContentHash = content.hashCode();
   }
 
   private void handleClipboardChange(String newContent) {
-    System.out.println("クリップボード変更検出: " + newContent.substring(0, Math.min(30, newContent.length())));
+    long capturedNanos = System.nanoTime();
+    if (Log.isDebugEnabled()) {
+      Log.debug("クリップボード変更検出: ", newContent.substring(0, Math.min(30, newContent.length())));
+    }
 
     try {
-      boolean added = clipboardData.addEntry(newContent);
-      if (!added) {
-        System.out.println("重複のためスキップ");
+      ClipboardEntry newEntry = clipboardData.addEntry(newContent);
+      if (newEntry == null) {
+        Log.debug("重複のためスキップ");
+        duplicatesSkipped.increment();
         return;
       }
-
-      // 最新のエントリを取得
-      ClipboardEntry newEntry = clipboardData.getAllEntries().get(0);
+      entriesCaptured.increment();
 
       // リスナーに通知
       notifyClipboardChange(newEntry);
 
-      // 保存処理
-      try {
-        Boolean result = fileManager.saveEntryAsync(newEntry).get(3, TimeUnit.SECONDS);
-        if (result != null && result) {
-          System.out.println("保存成功");
+      // 保存処理（書き込み待ちキューに積むだけで、ディスクの完了は待たない）
+      fileManager.saveEntryAsync(newEntry).thenAccept(saved -> {
+        if (saved) {
+          captureToPersist.recordSince(capturedNanos);
+          Log.debug("保存成功");
         } else {
-          System.err.println("保存失敗");
+          Log.error("保存失敗");
         }
-      } catch (TimeoutException e) {
-        System.err.println("保存タイムアウト");
-      } catch (ExecutionException e) {
-        System.err.println("保存実行エラー: " + e.getCause().getMessage());
-      } catch (InterruptedException e) {
-        System.err.println("保存中断");
-        Thread.currentThread().interrupt();
-      }
+      });
 
     } catch (Exception e) {
-      System.err.println("クリップボード処理エラー: " + e.getMessage());
+      Log.error("クリップボード処理エラー: ", e.getMessage());
     }
   }
 
@@ -172,10 +227,14 @@ public class ClipboardMonitor implements ClipboardOwner {
   public void copyToClipboard(String text) {
     try {
       StringSelection selection = new StringSelection(text);
+      // 監視スレッドと競合しないよう、指紋の更新は監視スレッド上で行う
+      if (isMonitoring.get()) {
+        scheduler.execute(() -> rememberContent(text));
+      } else {
+        rememberContent(text);
+      }
       systemClipboard.setContents(selection, this);
 
-      lastClipboardContent = text;
-
     } catch (Exception e) {
       notifyError("クリップボードへのコピーに失敗しました: " + e.getMessage());
     }
@@ -187,7 +246,7 @@ public class ClipboardMonitor implements ClipboardOwner {
         return (String) systemClipboard.getData(DataFlavor.stringFlavor);
       }
     } catch (Exception e) {
-      System.err.println("クリップボード内容の取得に失敗: " + e.getMessage());
+      Log.error("クリップボード内容の取得に失敗: ", e.getMessage());
     }
     return "";
   }
@@ -196,8 +255,10 @@ public class ClipboardMonitor implements ClipboardOwner {
     this.changeListener = listener;
   }
 
+  // 自分がコピーした内容を他のアプリが上書きした時点で通知されるので、すぐに確認する
   @Override
   public void lostOwnership(Clipboard clipboard, Transferable contents) {
+    requestImmediateCheck();
   }
 
   public void shutdown() {
@@ -0,0 +1,61 @@
+package Clipper.service;
+
+// ジャーナルをスナップショットへ畳み込むタイミングの設定
+public class CompactionPolicy {
+
+  private final int maxJournalRecords;
+  private final double maxGarbageRatio;
+  private final long idleMillis;
+  private final long checkIntervalMillis;
+
+  public CompactionPolicy(int maxJournalRecords, double maxGarbageRatio, long idleMillis, long checkIntervalMillis) {
+    this.maxJournalRecords = maxJournalRecords;
+    this.maxGarbageRatio = maxGarbageRatio;
+    this.idleMillis = idleMillis;
+    this.checkIntervalMillis = checkIntervalMillis;
+  }
+
+  public static CompactionPolicy defaults() {
+    return new CompactionPolicy(1000, 0.3, 30_000, 5_000);
+  }
+
+  public int getMaxJournalRecords() {
+    return maxJournalRecords;
+  }
+
+  public double getMaxGarbageRatio() {
+    return maxGarbageRatio;
+  }
+
+  public long getIdleMillis() {
+    return idleMillis;
+  }
+
+  public long getCheckIntervalMillis() {
+    return checkIntervalMillis;
+  }
+
+  // journalRecords: ジャーナルのレコード数, garbageRecords: 上書き・削除で不要になった行数
+  public boolean shouldCompact(int journalRecords, int garbageRecords, int liveEntries, long idleFor) {
+    if (journalRecords == 0) {
+      return false;
+    }
+
+    if (journalRecords >= maxJournalRecords) {
+      return true;
+    }
+
+    int totalRecords = liveEntries + journalRecords;
+    if (totalRecords > 0 && (double) garbageRecords / totalRecords >= maxGarbageRatio) {
+      return true;
+    }
+
+    return idleFor >= idleMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CompactionPolicy{maxJournalRecords=%d, maxGarbageRatio=%.2f, idleMillis=%d}",
+        maxJournalRecords, maxGarbageRatio, idleMillis);
+  }
+}
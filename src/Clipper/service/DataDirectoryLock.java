@@ -0,0 +1,77 @@
+package Clipper.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 同じデータディレクトリを使う複数のプロセス（別のClipperや同期スクリプト）の書き込みを直列化する。
+// OSのファイルロックはJVM単位でしか効かないので、同じJVM内ではReentrantLockで直列化してから取得する
+class DataDirectoryLock {
+
+  private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+  // acquireで取得したロック。使い終わったらfinallyでreleaseする
+  static final class Handle {
+    private final ReentrantLock localLock;
+    // 同じスレッドからの再取得ではnull（ファイルロックは一番外側の取得だけが持つ）
+    private final FileLock fileLock;
+
+    private Handle(ReentrantLock localLock, FileLock fileLock) {
+      this.localLock = localLock;
+      this.fileLock = fileLock;
+    }
+
+    // 一番外側の取得か。内側の取得では、外側で済ませた処理を繰り返さなくてよい
+    boolean isOutermost() {
+      return fileLock != null;
+    }
+
+    void release() throws IOException {
+      try {
+        if (fileLock != null) {
+          fileLock.release();
+          fileLock.channel().close();
+        }
+      } finally {
+        localLock.unlock();
+      }
+    }
+  }
+
+  private final Path lockPath;
+  private final ReentrantLock localLock;
+
+  DataDirectoryLock(Path lockPath) {
+    this.lockPath = lockPath.toAbsolutePath().normalize();
+    this.localLock = LOCAL_LOCKS.computeIfAbsent(this.lockPath, p -> new ReentrantLock());
+  }
+
+  // 他のプロセスが解放するまで待つ。同じスレッドからの再取得はそのまま通す
+  Handle acquire() throws IOException {
+    localLock.lock();
+    if (localLock.getHoldCount() > 1) {
+      return new Handle(localLock, null);
+    }
+
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      return new Handle(localLock, channel.lock());
+    } catch (IOException | RuntimeException e) {
+      if (channel != null) {
+        channel.close();
+      }
+      localLock.unlock();
+      throw e;
+    }
+  }
+
+  Path getLockPath() {
+    return lockPath;
+  }
+}
@@ -1,294 +1,1537 @@
 package Clipper.service;
 
 import Clipper.model.ClipboardEntry;
+import Clipper.model.ContentHash;
 import Clipper.util.CsvUtil;
 import Clipper.util.DateUtil;
+import Clipper.util.FsyncPolicy;
+import Clipper.util.Log;
+import Clipper.util.Metrics;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FileManager {
 
+  // スナップショットの保存形式。CSVは互換用で、既定は必要なエントリだけを読めるバイナリ形式
+  public enum StorageFormat {
+    CSV,
+    BINARY
+  }
+
+  private static final String JOURNAL_FILE_NAME = "clipboard_history.journal";
+  private static final String SEGMENT_FILE_NAME = "clipboard_history.seg";
+  private static final String OP_ADD = "ADD";
+  private static final String OP_UPDATE = "UPDATE";
+  private static final String OP_DELETE = "DELETE";
+  // 操作種別＋エントリのCSV列（チェックサム列を除く）
+  private static final int JOURNAL_RECORD_FIELDS = 6;
+  private static final int SAVE_QUEUE_CAPACITY = 1024;
+  private static final String BLOB_DIRECTORY_NAME = "blobs";
+  private static final String PARTITION_DIRECTORY_NAME = "partitions";
+  private static final String LOCK_FILE_NAME = "clipper.lock";
+  // インポート時にパーティションへまとめて取り込む件数の目安（日の区切りで書き出す）
+  private static final int IMPORT_CHUNK_SIZE = 10_000;
+  // 終了時に、書き込み待ちの保存が終わるのを待つ上限
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  // 書き込み結果の通知先（FileManager-Threadから呼ばれる）
+  public interface SaveListener {
+    void onEntriesPersisted(List<ClipboardEntry> entries);
+
+    void onSaveFailed(List<ClipboardEntry> entries, Exception cause);
+  }
+
+  // 他のプロセス（別のClipperや同期スクリプト）による変更。ジャーナルへの追記はレコード単位で、
+  // 他プロセスの圧縮などで書き換わったパーティションは、読み込み済みの日付なら読み直した内容で通知する
+  public static class ExternalChanges {
+    private final List<ClipboardEntry> addedEntries = new ArrayList<>();
+    private final Map<String, Boolean> favoriteChanges = new LinkedHashMap<>();
+    private final Set<String> deletedIds = new LinkedHashSet<>();
+    private final Set<LocalDate> changedDates = new TreeSet<>(Comparator.reverseOrder());
+
+    public List<ClipboardEntry> getAddedEntries() {
+      return addedEntries;
+    }
+
+    public Map<String, Boolean> getFavoriteChanges() {
+      return favoriteChanges;
+    }
+
+    public Set<String> getDeletedIds() {
+      return deletedIds;
+    }
+
+    public Set<LocalDate> getChangedDates() {
+      return changedDates;
+    }
+
+    public boolean isEmpty() {
+      return addedEntries.isEmpty() && favoriteChanges.isEmpty() && deletedIds.isEmpty() && changedDates.isEmpty();
+    }
+  }
+
+  // 他のプロセスによる変更の通知先（FileManager-Threadから呼ばれる）
+  public interface ExternalChangeListener {
+    void onExternalChanges(ExternalChanges changes);
+  }
+
+  // ジャーナルへの追記1件と、その完了を待つfuture。SaveListenerに通知するのは追加（OP_ADD）だけ
+  private static class PendingSave {
+    private final String op;
+    private final ClipboardEntry entry;
+    private final CompletableFuture<Boolean> future;
+    private final long enqueuedNanos = System.nanoTime();
+
+    PendingSave(String op, ClipboardEntry entry, CompletableFuture<Boolean> future) {
+      this.op = op;
+      this.entry = entry;
+      this.future = future;
+    }
+
+    boolean isAdd() {
+      return OP_ADD.equals(op);
+    }
+  }
+
   private final String dataDirectory;
-  private final Executor fileOperationExecutor;
+  private final ScheduledExecutorService fileOperationExecutor;
+  // エクスポート・インポートのファイル読み書き用。長時間かかるので保存処理のスレッドとは分ける
+  private final ExecutorService transferExecutor;
+  private final CompactionPolicy compactionPolicy;
+  private final StorageFormat storageFormat;
+  // 生成時のfsyncポリシーがGROUP_COMMITなら、定期的にジャーナルを同期する
+  private final boolean groupCommitScheduled;
+  private final BlockingQueue<PendingSave> saveQueue = new ArrayBlockingQueue<>(SAVE_QUEUE_CAPACITY);
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private volatile SaveListener saveListener;
+  private volatile ExternalChangeListener externalChangeListener;
+  private final DataDirectoryLock directoryLock;
+  private final AtomicBoolean externalCheckScheduled = new AtomicBoolean(false);
+  private volatile WatchService watchService;
+  private final BlobStore blobStore;
+  private final PartitionStore partitionStore;
+  // メモリに読み込み済みの日付と、まだパーティションに畳み込まれていない追加がある日付
+  private final Set<LocalDate> loadedDates = new ConcurrentSkipListSet<>();
+  private final Set<LocalDate> journalDates = new ConcurrentSkipListSet<>();
+
+  private final Metrics.Counter savesRejected = Metrics.getDefault().counter("save.rejected");
+  private final Metrics.Histogram saveQueueLatency = Metrics.getDefault().histogram("save.queueLatency");
+  private final Metrics.Histogram journalAppendTime = Metrics.getDefault().histogram("journal.appendTime");
+  private final Metrics.Histogram loadTime = Metrics.getDefault().histogram("load.partitionsTime");
+  private final Metrics.Histogram firstPageLoadTime = Metrics.getDefault().histogram("load.firstPageTime");
+  private final Metrics.Histogram compactionTime = Metrics.getDefault().histogram("compaction.time");
+  private final Metrics.Histogram journalSyncTime = Metrics.getDefault().histogram("journal.syncTime");
+  private final Metrics.Counter tornRecords = Metrics.getDefault().counter("journal.tornRecords");
+  private final Metrics.Counter externalRecords = Metrics.getDefault().counter("journal.externalRecords");
+  private final Metrics.Histogram exportTime = Metrics.getDefault().histogram("transfer.exportTime");
+  private final Metrics.Histogram importTime = Metrics.getDefault().histogram("transfer.importTime");
+
+  // 以下はFileManager-Thread上でのみ更新する
+  private int journalRecordCount;
+  private int garbageRecordCount;
+  private int liveEntryCount;
+  private long lastWriteMillis;
+  // GROUP_COMMITで、まだfsyncしていない追記があるか
+  private boolean journalDirty;
+  // GROUP_COMMITで追記済みだがまだfsyncしていない保存・更新・削除。同期が終わってから完了を通知する
+  private final List<PendingSave> unsyncedSaves = new ArrayList<>();
+  // ジャーナルのうち、このインスタンスが把握済みの位置。ここから先は他のプロセスによる追記
+  private long journalOffset;
+  // 他のプロセスがジャーナルを畳み込んで作り直したことを検出するためのファイル識別子
+  private Object journalFileKey;
 
   public FileManager() {
+    this(CompactionPolicy.defaults());
+  }
+
+  public FileManager(CompactionPolicy compactionPolicy) {
+    this(compactionPolicy,
+        StorageFormat.valueOf(System.getProperty("clipper.storage.format", "BINARY").toUpperCase()));
+  }
+
+  public FileManager(CompactionPolicy compactionPolicy, StorageFormat storageFormat) {
     String homeDir = System.getProperty("user.home");
     this.dataDirectory = homeDir + File.separator + "Documents" + File.separator + "ClipperData";
-    this.fileOperationExecutor = Executors.newSingleThreadExecutor(r -> {
+    this.compactionPolicy = compactionPolicy;
+    this.storageFormat = storageFormat;
+    this.groupCommitScheduled = CsvUtil.getFsyncPolicy() == FsyncPolicy.GROUP_COMMIT;
+    this.blobStore = new BlobStore(Paths.get(dataDirectory, BLOB_DIRECTORY_NAME));
+    this.partitionStore = new PartitionStore(Paths.get(dataDirectory, PARTITION_DIRECTORY_NAME), storageFormat,
+        blobStore, row -> parseEntry(row, 0));
+    this.directoryLock = new DataDirectoryLock(Paths.get(dataDirectory, LOCK_FILE_NAME));
+    this.fileOperationExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread thread = new Thread(r, "FileManager-Thread");
       thread.setDaemon(true);
       return thread;
     });
 
+    this.transferExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "FileManager-Transfer");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    Metrics.getDefault().gauge("save.queueDepth", saveQueue::size);
+    Metrics.getDefault().gauge("journal.records", () -> journalRecordCount);
+
     createDataDirectory();
+    startBackgroundCompaction();
+    startWatching();
+  }
+
+  private void startBackgroundCompaction() {
+    fileOperationExecutor.execute(this::recoverCompactionState);
+
+    long interval = compactionPolicy.getCheckIntervalMillis();
+    fileOperationExecutor.scheduleWithFixedDelay(() -> {
+      try {
+        long idleFor = System.currentTimeMillis() - lastWriteMillis;
+        if (compactionPolicy.shouldCompact(journalRecordCount, garbageRecordCount, liveEntryCount, idleFor)) {
+          compactJournal();
+        }
+      } catch (Exception e) {
+        // 例外で定期実行が止まらないようにする
+        Log.error("バックグラウンド圧縮に失敗しました: ", e.getMessage());
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+
+    if (groupCommitScheduled) {
+      long syncInterval = FsyncPolicy.getGroupCommitIntervalMillis();
+      fileOperationExecutor.scheduleWithFixedDelay(this::syncJournal, syncInterval, syncInterval,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // 前回の同期以降にジャーナルへ追記した分をまとめて1回でディスクに同期し、待たせていた保存を完了させる
+  private void syncJournal() {
+    if (!journalDirty && unsyncedSaves.isEmpty()) {
+      return;
+    }
+    journalDirty = false;
+    List<PendingSave> synced = new ArrayList<>(unsyncedSaves);
+    unsyncedSaves.clear();
+
+    // ジャーナルが無ければ、圧縮で同期済みのパーティションに畳み込まれている
+    Path journalPath = Paths.get(getJournalFilePath());
+    if (Files.exists(journalPath)) {
+      long start = System.nanoTime();
+      try {
+        CsvUtil.force(journalPath);
+        journalSyncTime.recordSince(start);
+      } catch (IOException e) {
+        Log.error("ジャーナルの同期に失敗しました: ", e.getMessage());
+        failSaves(synced, e);
+        return;
+      }
+    }
+    completeSaves(synced);
+  }
+
+  // 前回の圧縮中にクラッシュした場合の一時ファイルを片付け、マニフェストとジャーナルの統計を復元する
+  private void recoverCompactionState() {
+    try {
+      DataDirectoryLock.Handle lock = directoryLock.acquire();
+      try {
+        partitionStore.deleteStaleTempFiles();
+        partitionStore.loadManifest();
+        if (hasLegacySnapshot()) {
+          migrateToPartitions();
+        }
+
+        truncateTornJournalTail();
+        List<String[]> journalRecords = readJournalRecords();
+        for (String[] record : journalRecords) {
+          if (record.length > 0) {
+            countJournalRecord(record[0]);
+          }
+          trackJournalDate(record);
+        }
+        rememberJournalPosition();
+        liveEntryCount = Math.max(0, liveEntryCount + partitionStore.getTotalEntryCount());
+      } finally {
+        lock.release();
+      }
+    } catch (IOException e) {
+      Log.error("ジャーナルの復元に失敗しました: ", e.getMessage());
+    }
+  }
+
+  // 書き込み途中で落ちた場合、ジャーナル末尾に途中までのレコードが残る。
+  // 次の追記がその行に繋がってしまわないよう、検証できた最後のレコードまでで切り詰める
+  private void truncateTornJournalTail() throws IOException {
+    String journalPath = getJournalFilePath();
+    if (!CsvUtil.isValidCsvFile(journalPath)) {
+      return;
+    }
+
+    List<String[]> rawRecords = CsvUtil.readCsvFile(journalPath);
+    int validCount = countValidJournalRecords(rawRecords);
+    if (validCount == rawRecords.size()) {
+      return;
+    }
+
+    int discarded = rawRecords.size() - validCount;
+    Log.warn("ジャーナル末尾の壊れたレコードを破棄します。件数: ", discarded);
+    tornRecords.add(discarded);
+    if (validCount == 0) {
+      Files.deleteIfExists(Paths.get(journalPath));
+    } else {
+      CsvUtil.writeCsvFile(journalPath, rawRecords.subList(0, validCount));
+    }
+  }
+
+  // 単一ファイルの旧スナップショットを日付ごとのパーティションに分割する。
+  // 旧ファイルは分割が終わってから退避するので、途中で落ちても次回起動時にやり直せる
+  private void migrateToPartitions() throws IOException {
+    Log.info("単一ファイルの履歴を日付別パーティションに移行します");
+
+    Map<LocalDate, List<ClipboardEntry>> entriesByDate = new LinkedHashMap<>();
+    for (ClipboardEntry entry : readLegacySnapshot()) {
+      entriesByDate.computeIfAbsent(entry.getDate(), d -> new ArrayList<>()).add(entry);
+    }
+    for (Map.Entry<LocalDate, List<ClipboardEntry>> partition : entriesByDate.entrySet()) {
+      partitionStore.writePartition(partition.getKey(), partition.getValue());
+    }
+    if (entriesByDate.isEmpty()) {
+      partitionStore.clear();
+    }
+
+    for (String legacyPath : new String[] { getSegmentFilePath(), getSingleCsvFilePath() }) {
+      Path path = Paths.get(legacyPath);
+      if (Files.exists(path)) {
+        Files.move(path, Paths.get(legacyPath + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    Log.info("パーティションへの移行が完了しました。日数: ", entriesByDate.size());
+  }
+
+  private boolean hasLegacySnapshot() {
+    return Files.exists(Paths.get(getSegmentFilePath())) || CsvUtil.isValidCsvFile(getSingleCsvFilePath());
+  }
+
+  private List<ClipboardEntry> readLegacySnapshot() throws IOException {
+    List<ClipboardEntry> entries = new ArrayList<>();
+    Path segmentPath = Paths.get(getSegmentFilePath());
+    if (Files.exists(segmentPath)) {
+      try (SegmentFile.Reader reader = SegmentFile.open(segmentPath, blobStore)) {
+        entries.addAll(reader.readRange(0, reader.size()));
+      }
+    } else if (CsvUtil.isValidCsvFile(getSingleCsvFilePath())) {
+      try (Stream<String[]> rows = CsvUtil.streamCsvFile(getSingleCsvFilePath())) {
+        rows.skip(1)
+            .map(row -> parseEntry(row, 0))
+            .filter(Objects::nonNull)
+            .forEach(entries::add);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    return entries;
+  }
+
+  public void setExternalChangeListener(ExternalChangeListener listener) {
+    this.externalChangeListener = listener;
+  }
+
+  // 書き込み用にデータディレクトリをロックし、先に他のプロセスの変更を取り込む。
+  // 取り込んでから書くことで、他のプロセスの追記や圧縮を上書きして失うことがなくなる。
+  // ロックを持ったままの再取得では他のプロセスは書き込めないので、取り込みは一番外側の取得でだけ行う
+  private DataDirectoryLock.Handle lockDataDirectory() throws IOException {
+    DataDirectoryLock.Handle lock = directoryLock.acquire();
+    if (!lock.isOutermost()) {
+      return lock;
+    }
+    try {
+      catchUpExternalChanges();
+    } catch (IOException | RuntimeException e) {
+      lock.release();
+      throw e;
+    }
+    return lock;
+  }
+
+  // ジャーナルとマニフェストを監視し、他のプロセスによる変更があればFileManager-Threadで取り込む
+  private void startWatching() {
+    try {
+      WatchService service = FileSystems.getDefault().newWatchService();
+      Path partitionDirectory = Paths.get(getPartitionDirectory());
+      Files.createDirectories(partitionDirectory);
+      for (Path directory : new Path[] { Paths.get(dataDirectory), partitionDirectory }) {
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+      }
+      watchService = service;
+
+      Thread thread = new Thread(() -> watchDataDirectory(service), "FileManager-Watcher");
+      thread.setDaemon(true);
+      thread.start();
+    } catch (IOException e) {
+      Log.warn("データディレクトリの変更監視を開始できませんでした: ", e.getMessage());
+    }
+  }
+
+  private void watchDataDirectory(WatchService service) {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          String name = String.valueOf(event.context());
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW || JOURNAL_FILE_NAME.equals(name)
+              || PartitionStore.MANIFEST_FILE_NAME.equals(name)) {
+            relevant = true;
+          }
+        }
+        key.reset();
+        if (relevant) {
+          scheduleExternalChangeCheck();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // shutdownで監視を止めた
+    }
+  }
+
+  // 自身の書き込みでもイベントは届くが、その場合は位置と更新時刻が一致するので何も読まずに終わる
+  private void scheduleExternalChangeCheck() {
+    if (externalCheckScheduled.compareAndSet(false, true)) {
+      try {
+        fileOperationExecutor.execute(this::checkExternalChanges);
+      } catch (RejectedExecutionException e) {
+        externalCheckScheduled.set(false);
+      }
+    }
+  }
+
+  private void checkExternalChanges() {
+    externalCheckScheduled.set(false);
+    try {
+      // 取り込みはlockDataDirectoryの中で済む
+      lockDataDirectory().release();
+    } catch (IOException e) {
+      Log.error("他のプロセスによる変更の取り込みに失敗しました: ", e.getMessage());
+    }
+  }
+
+  // ロックを持った状態でFileManager-Threadから呼ぶこと
+  private void catchUpExternalChanges() throws IOException {
+    ExternalChanges changes = new ExternalChanges();
+
+    // 他のプロセスが圧縮や破棄をした場合はマニフェストが変わる。読み込み済みの日付は読み直して通知する
+    Set<LocalDate> changedDates = partitionStore.reloadManifestIfChanged();
+    if (!changedDates.isEmpty()) {
+      changes.changedDates.addAll(changedDates);
+      liveEntryCount = partitionStore.getTotalEntryCount();
+    }
+    tailJournal(changes);
+
+    List<LocalDate> reloadDates = new ArrayList<>();
+    for (LocalDate date : changedDates) {
+      if (loadedDates.contains(date)) {
+        reloadDates.add(date);
+      }
+    }
+    if (!reloadDates.isEmpty()) {
+      // ここで読み直せるのは追加とお気に入りの変更まで。他のプロセスで削除され、
+      // こちらがジャーナルを読む前に畳み込まれた分は、次回起動時の読み込みで反映される
+      for (ClipboardEntry entry : loadPartitions(reloadDates, false)) {
+        changes.addedEntries.add(entry);
+        changes.favoriteChanges.put(entry.getId(), entry.isFavorite());
+      }
+    }
+
+    ExternalChangeListener listener = externalChangeListener;
+    if (!changes.isEmpty() && listener != null) {
+      listener.onExternalChanges(changes);
+    }
+  }
+
+  // ジャーナルの前回位置以降（他のプロセスの追記分）だけを読んで反映する
+  private void tailJournal(ExternalChanges changes) throws IOException {
+    Path journalPath = Paths.get(getJournalFilePath());
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(journalPath, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      if (journalOffset > 0) {
+        resetJournalState();
+      }
+      return;
+    }
+
+    long size = attributes.size();
+    Object fileKey = attributes.fileKey();
+    if (size < journalOffset || (journalFileKey != null && !journalFileKey.equals(fileKey))) {
+      // 他のプロセスが畳み込んで作り直した。畳み込まれた分はマニフェストの変更として届く
+      resetJournalState();
+    }
+    journalFileKey = fileKey;
+    if (size == journalOffset) {
+      return;
+    }
+
+    List<String[]> rawRecords = readJournalRange(journalPath, journalOffset, size);
+    int validCount = countValidJournalRecords(rawRecords);
+    for (String[] rawRecord : rawRecords.subList(0, validCount)) {
+      String[] record = rawRecord.length == JOURNAL_RECORD_FIELDS + 1 ? CsvUtil.stripChecksum(rawRecord) : rawRecord;
+      countJournalRecord(record[0]);
+      trackJournalDate(record);
+      collectExternalChange(changes, record);
+    }
+    externalRecords.add(validCount);
+    journalOffset = size;
+    if (validCount < rawRecords.size()) {
+      // 他のプロセスが書き込み途中で落ちた。このまま追記すると壊れた行に繋がるので切り詰める
+      truncateTornJournalTail();
+      rememberJournalPosition();
+    }
+    Log.debug("他のプロセスによるジャーナルの追記を取り込みました: ", validCount);
+  }
+
+  // 範囲が大きくても（取り込みや大きな本文の追記で2GBを超えることもある）一度に確保せず、順に読む
+  private List<String[]> readJournalRange(Path journalPath, long from, long to) throws IOException {
+    List<String[]> records = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ);
+        InputStream in = new RangeInputStream(Channels.newInputStream(channel.position(from)), to - from);
+        // ジャーナルはFileWriterで書いているので、読み込みも既定の文字コードで行う
+        CsvUtil.CsvReader reader = new CsvUtil.CsvReader(
+            new BufferedReader(new InputStreamReader(in, Charset.defaultCharset())))) {
+      reader.forEachRemaining(records::add);
+    }
+    return records;
+  }
+
+  // 把握した長さより先は他のプロセスが追記中かもしれないので、指定バイト数までで読むのをやめる
+  private static class RangeInputStream extends FilterInputStream {
+    private long remaining;
+
+    RangeInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = super.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = super.read(buffer, offset, (int) Math.min(length, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+  }
+
+  private void collectExternalChange(ExternalChanges changes, String[] record) {
+    if (record.length < JOURNAL_RECORD_FIELDS) {
+      return;
+    }
+
+    switch (record[0]) {
+      case OP_ADD: {
+        LocalDate date = getJournalRecordDate(record);
+        // 未読み込みの日付はメモリに載せない（開いた時にパーティションとジャーナルから読む）
+        if (date != null && (loadedDates.contains(date) || partitionStore.getInfo(date) == null)) {
+          ClipboardEntry entry = parseEntry(record, 1);
+          if (entry != null) {
+            changes.addedEntries.add(entry);
+          }
+        }
+        break;
+      }
+      case OP_UPDATE:
+        changes.favoriteChanges.put(record[1], Boolean.parseBoolean(record[3]));
+        break;
+      case OP_DELETE:
+        changes.deletedIds.add(record[1]);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void resetJournalState() {
+    journalOffset = 0;
+    journalFileKey = null;
+    journalDates.clear();
+    journalRecordCount = 0;
+    garbageRecordCount = 0;
+    liveEntryCount = partitionStore.getTotalEntryCount();
+  }
+
+  // 自身の書き込み後に呼び、ここまでは把握済みとする
+  private void rememberJournalPosition() throws IOException {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(Paths.get(getJournalFilePath()),
+          BasicFileAttributes.class);
+      journalOffset = attributes.size();
+      journalFileKey = attributes.fileKey();
+    } catch (NoSuchFileException e) {
+      journalOffset = 0;
+      journalFileKey = null;
+    }
   }
 
   private void createDataDirectory() {
     File dir = new File(dataDirectory);
     if (!dir.exists()) {
       if (!dir.mkdirs()) {
-        System.err.println("データディレクトリの作成に失敗しました: " + dataDirectory);
+        Log.error("データディレクトリの作成に失敗しました: ", dataDirectory);
       }
     }
   }
 
   public String getCsvFilePath(LocalDate date) {
-    return dataDirectory + File.separator + DateUtil.generateCsvFileName(date);
+    return partitionStore.getPartitionPath(date).toString();
   }
 
   public String getSingleCsvFilePath() {
     return dataDirectory + File.separator + "clipboard_history.csv";
   }
 
+  public String getJournalFilePath() {
+    return dataDirectory + File.separator + JOURNAL_FILE_NAME;
+  }
+
+  // 新しいエントリは履歴ファイル全体を書き直さず、ジャーナルに1レコード追記するだけにする
+  // 呼び出し元はディスクを待たない。エントリは書き込み待ちキューに積まれ、
+  // FileManager-Threadがまとめて1回の追記で書き出す。キューが満杯の場合は即座にfalseで完了する
   public CompletableFuture<Boolean> saveEntryAsync(ClipboardEntry entry) {
-    System.out.println("保存開始: " + entry.getText().substring(0, Math.min(20, entry.getText().length())));
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+    if (!saveQueue.offer(new PendingSave(OP_ADD, entry, future))) {
+      Log.warn("保存キューが満杯のため保存できませんでした: ", entry.getId());
+      savesRejected.increment();
+      future.complete(false);
+      return future;
+    }
 
-    CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> {
+    if (drainScheduled.compareAndSet(false, true)) {
       try {
-        String filePath = getSingleCsvFilePath();
-        File file = new File(filePath);
+        fileOperationExecutor.execute(this::drainSaveQueue);
+      } catch (RejectedExecutionException e) {
+        drainScheduled.set(false);
+        failPendingSaves(e);
+      }
+    }
+    return future;
+  }
 
-        List<String[]> allRows = new ArrayList<>();
+  private void drainSaveQueue() {
+    // 書き込み中に積まれた分は次のドレインで拾えるよう、先にフラグを戻す
+    drainScheduled.set(false);
 
-        // ヘッダーを最初に追加
-        allRows.add(CsvUtil.createCsvHeader());
+    List<PendingSave> batch = new ArrayList<>();
+    saveQueue.drainTo(batch);
+    if (batch.isEmpty()) {
+      return;
+    }
 
-        // 新しいエントリを2番目に追加（ヘッダーの直下、つまり最新が上）
-        allRows.add(entry.toCsvArray());
+    List<ClipboardEntry> entries = new ArrayList<>(batch.size());
+    for (PendingSave pending : batch) {
+      entries.add(pending.entry);
+    }
 
-        // 既存のデータがある場合は読み込んで追加（ヘッダーを除く）
-        if (CsvUtil.isValidCsvFile(filePath)) {
-          List<String[]> existingRows = CsvUtil.readCsvFile(filePath);
-          // ヘッダー行をスキップして既存データを追加
-          for (int i = 1; i < existingRows.size(); i++) {
-            allRows.add(existingRows.get(i));
-          }
+    // 本文ファイルの書き込みからジャーナルへの追記までをロック内で行い、
+    // 他のプロセスの圧縮が参照前の本文ファイルを消さないようにする
+    try {
+      DataDirectoryLock.Handle lock = lockDataDirectory();
+      try {
+        List<String[]> rows = new ArrayList<>(batch.size());
+        for (ClipboardEntry entry : entries) {
+          spillIfLarge(entry);
+          rows.add(entry.toCsvArray());
         }
+        long appendStart = System.nanoTime();
+        appendJournalRecords(OP_ADD, rows);
+        journalAppendTime.recordSince(appendStart);
+      } finally {
+        lock.release();
+      }
+    } catch (IOException e) {
+      Log.error("保存失敗: ", e.getMessage());
+      failSaves(batch, e);
+      return;
+    }
 
-        // ファイル全体を書き直し
-        CsvUtil.writeCsvFile(filePath, allRows);
-        System.out.println("単一ファイル保存完了: " + filePath);
+    acknowledgeAppended(batch);
+  }
 
-        return true;
-      } catch (Exception e) {
-        System.err.println("保存失敗: " + e.getMessage());
-        e.printStackTrace();
-        return false;
+  // ALWAYSは追記の中でfsync済み。GROUP_COMMITは次のsyncJournalまで完了を待たせる
+  // （生成後にGROUP_COMMITへ切り替えられて定期同期が無い場合は、ここで同期する）
+  private void acknowledgeAppended(List<PendingSave> appended) {
+    if (CsvUtil.getFsyncPolicy() == FsyncPolicy.GROUP_COMMIT) {
+      unsyncedSaves.addAll(appended);
+      if (!groupCommitScheduled) {
+        syncJournal();
       }
-    }); // エグゼキュータを一時的に削除してテスト
+    } else {
+      completeSaves(appended);
+    }
+  }
 
-    return future;
+  private void completeSaves(List<PendingSave> saves) {
+    List<ClipboardEntry> added = new ArrayList<>(saves.size());
+    for (PendingSave pending : saves) {
+      if (pending.isAdd()) {
+        added.add(pending.entry);
+        saveQueueLatency.recordSince(pending.enqueuedNanos);
+      }
+      pending.future.complete(true);
+    }
+    if (saveListener != null && !added.isEmpty()) {
+      saveListener.onEntriesPersisted(added);
+    }
   }
 
-  public CompletableFuture<List<ClipboardEntry>> loadEntriesAsync(LocalDate date) {
-    return CompletableFuture.supplyAsync(() -> {
-      try {
-        String filePath = getSingleCsvFilePath();
+  private void failSaves(List<PendingSave> saves, Exception cause) {
+    List<ClipboardEntry> added = new ArrayList<>(saves.size());
+    for (PendingSave pending : saves) {
+      if (pending.isAdd()) {
+        added.add(pending.entry);
+      }
+      pending.future.complete(false);
+    }
+    if (saveListener != null && !added.isEmpty()) {
+      saveListener.onSaveFailed(added, cause);
+    }
+  }
 
-        if (!CsvUtil.isValidCsvFile(filePath)) {
-          System.out.println("ファイルが存在しません: " + filePath);
-          return new ArrayList<>();
-        }
+  private void spillIfLarge(ClipboardEntry entry) throws IOException {
+    if (!entry.shouldSpill()) {
+      return;
+    }
 
-        System.out.println("読み込み中のファイル: " + filePath);
-        List<String[]> rows = CsvUtil.readCsvFile(filePath);
-        List<ClipboardEntry> entries = new ArrayList<>();
+    ContentHash hash = entry.getContentHash();
+    blobStore.write(hash, entry.getText());
+    entry.spill(() -> blobStore.read(hash));
+  }
 
-        // 最大500行（ヘッダー除く）まで読み込み
-        int maxEntries = 500;
-        int entriesToRead = Math.min(maxEntries, rows.size() - 1);
+  private void failPendingSaves(Exception cause) {
+    List<PendingSave> batch = new ArrayList<>();
+    saveQueue.drainTo(batch);
+    failSaves(batch, cause);
+  }
 
-        System.out.println("ファイル内容 (全 " + (rows.size() - 1) + " エントリ中、上位 " + entriesToRead + " エントリを読み込み):");
+  public int getPendingSaveCount() {
+    return saveQueue.size();
+  }
 
-        for (int i = 1; i <= entriesToRead; i++) {
-          String[] row = rows.get(i);
-          if (row.length >= 5) {
-            try {
-              String id = row[0];
-              LocalDateTime timestamp = DateUtil.parseTimestamp(row[1]);
-              boolean isFavorite = Boolean.parseBoolean(row[2]);
-              String text = row[4];
-
-              ClipboardEntry entry = new ClipboardEntry(id, timestamp, isFavorite, text);
-              entries.add(entry);
-
-              // 内容をプレビュー表示（最初の50文字）
-              String preview = text.length() > 50 ? text.substring(0, 50) + "..." : text;
-              System.out
-                  .println("  - " + timestamp.format(java.time.format.DateTimeFormatter.ofPattern("MM-dd HH:mm:ss")) +
-                      ": " + preview.replace("\n", "\\n"));
-            } catch (Exception e) {
-              System.err.println("エントリの解析に失敗しました: " + e.getMessage());
-            }
-          }
-        }
+  public int getRemainingSaveCapacity() {
+    return saveQueue.remainingCapacity();
+  }
 
-        System.out.println("読み込み完了: " + entries.size() + " エントリ");
+  public boolean isSaveQueueFull() {
+    return saveQueue.remainingCapacity() == 0;
+  }
+
+  public void setSaveListener(SaveListener listener) {
+    this.saveListener = listener;
+  }
+
+  // 指定日のパーティションを読み込み、まだ畳み込まれていないその日のジャーナルを重ねる
+  public CompletableFuture<List<ClipboardEntry>> loadEntriesAsync(LocalDate date) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        List<LocalDate> dates = new ArrayList<>();
+        dates.add(date);
+        List<ClipboardEntry> entries = loadPartitions(dates, false);
+        Log.debug("パーティションを読み込みました: ", date);
         return entries;
       } catch (IOException e) {
-        System.err.println("ファイルの読み込みに失敗しました: " + e.getMessage());
+        Log.error("ファイルの読み込みに失敗しました: ", e.getMessage());
         return new ArrayList<>();
       }
-    }); // エグゼキュータを削除してデフォルト使用
+    }, fileOperationExecutor);
   }
 
+  // 起動時は直近days日分のパーティションだけを読む。古い日付はloadEntriesAsyncで必要になった時に読む
   public CompletableFuture<List<ClipboardEntry>> loadRecentEntriesAsync(int days) {
     return CompletableFuture.supplyAsync(() -> {
-      System.out.println("単一ファイルから最新 500 エントリを読み込み中...");
-
-      // 単一ファイル対応のため、日付は無視して直接loadEntriesAsyncを呼ぶ
       try {
-        List<ClipboardEntry> entries = loadEntriesAsync(LocalDate.now()).get();
-        System.out.println("全体で " + entries.size() + " エントリを読み込み完了");
+        LocalDate cutoff = LocalDate.now().minusDays(days - 1);
+        List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate date : partitionStore.getDates()) {
+          if (!date.isBefore(cutoff) || dates.isEmpty()) {
+            // 直近に履歴がなくても、最新の1日分は表示できるようにする
+            dates.add(date);
+          }
+        }
+
+        long start = System.nanoTime();
+        List<ClipboardEntry> entries = loadPartitions(dates, true);
+        loadTime.recordSince(start);
+        if (Log.isInfoEnabled()) {
+          Log.info("読み込み完了: " + dates.size() + " 日分, " + entries.size() + " エントリ ("
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+        }
         return entries;
-      } catch (Exception e) {
-        System.err.println("データ読み込みに失敗しました: " + e.getMessage());
+      } catch (IOException e) {
+        Log.error("データ読み込みに失敗しました: ", e.getMessage());
         return new ArrayList<>();
       }
-    }); // エグゼキュータを削除してデフォルト使用
+    }, fileOperationExecutor);
   }
 
-  public CompletableFuture<Boolean> deleteEntryAsync(ClipboardEntry entry) {
+  // 起動直後の表示用に、最新のlimit件だけを読む。各パーティションは先頭（新しい側）しか読まないので、
+  // 読み込み済みの日付としては扱わない
+  public CompletableFuture<List<ClipboardEntry>> loadNewestEntriesAsync(int limit) {
     return CompletableFuture.supplyAsync(() -> {
+      long start = System.nanoTime();
       try {
-        String filePath = getSingleCsvFilePath();
+        List<String[]> journalRecords = readJournalRecords();
+        int deleteCount = 0;
+        for (String[] record : journalRecords) {
+          if (record.length > 0 && OP_DELETE.equals(record[0])) {
+            deleteCount++;
+          }
+        }
 
-        if (!CsvUtil.isValidCsvFile(filePath)) {
-          return false;
+        // ジャーナルで削除される分を見込んで多めに読む
+        int wanted = limit + deleteCount;
+        Map<String, ClipboardEntry> entriesById = new LinkedHashMap<>();
+        for (LocalDate date : partitionStore.getDates()) {
+          if (entriesById.size() >= wanted) {
+            break;
+          }
+          for (ClipboardEntry entry : partitionStore.readPartition(date, wanted - entriesById.size())) {
+            entriesById.put(entry.getId(), entry);
+          }
+        }
+        for (String[] record : journalRecords) {
+          applyJournalRecord(entriesById, record);
         }
 
-        List<String[]> rows = CsvUtil.readCsvFile(filePath);
-        List<String[]> updatedRows = new ArrayList<>();
+        List<ClipboardEntry> entries = new ArrayList<>(entriesById.values());
+        entries.sort((e1, e2) -> Long.compare(e2.getEpochMillis(), e1.getEpochMillis()));
+        firstPageLoadTime.recordSince(start);
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+      } catch (IOException e) {
+        Log.error("最新エントリの読み込みに失敗しました: ", e.getMessage());
+        return new ArrayList<>();
+      }
+    }, fileOperationExecutor);
+  }
 
-        // ヘッダー行を保持
-        if (!rows.isEmpty()) {
-          updatedRows.add(rows.get(0));
-        }
+  // includeJournalAddsがtrueの場合は、対象日以外のジャーナル追加分（まだパーティションのない日）も含める。
+  // 各パーティションの読み込みは並列に行うが、全体はFileManager-Thread上で完了を待つので、
+  // 読み込み中に圧縮でパーティションとジャーナルが入れ替わることはない
+  private List<ClipboardEntry> loadPartitions(Collection<LocalDate> dates, boolean includeJournalAdds)
+      throws IOException {
+    List<List<ClipboardEntry>> partitions;
+    try {
+      partitions = dates.parallelStream()
+          .map(date -> {
+            try {
+              return partitionStore.readPartition(date);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          })
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    Map<String, ClipboardEntry> entriesById = new LinkedHashMap<>();
+    for (List<ClipboardEntry> partition : partitions) {
+      for (ClipboardEntry entry : partition) {
+        entriesById.put(entry.getId(), entry);
+      }
+    }
 
-        // 指定されたIDのエントリ以外を保持
-        boolean entryFound = false;
-        for (int i = 1; i < rows.size(); i++) {
-          String[] row = rows.get(i);
-          if (row.length > 0 && !row[0].equals(entry.getId())) {
-            updatedRows.add(row);
-          } else if (row.length > 0 && row[0].equals(entry.getId())) {
-            entryFound = true;
+    Set<LocalDate> targetDates = new HashSet<>(dates);
+    for (String[] record : readJournalRecords()) {
+      LocalDate recordDate = getJournalRecordDate(record);
+      if (recordDate == null) {
+        continue;
+      }
+      if (targetDates.contains(recordDate)) {
+        applyJournalRecord(entriesById, record);
+      } else if (includeJournalAdds && OP_ADD.equals(record[0]) && partitionStore.getInfo(recordDate) == null) {
+        targetDates.add(recordDate);
+        applyJournalRecord(entriesById, record);
+      }
+    }
+    loadedDates.addAll(targetDates);
+
+    List<ClipboardEntry> entries = new ArrayList<>(entriesById.values());
+    entries.sort((e1, e2) -> Long.compare(e2.getEpochMillis(), e1.getEpochMillis()));
+    return entries;
+  }
+
+  // お気に入りを含む未読み込みのパーティションをまとめて読み込む（お気に入り一覧の表示用）
+  public CompletableFuture<List<ClipboardEntry>> loadFavoritePartitionsAsync() {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        List<LocalDate> dates = new ArrayList<>();
+        for (PartitionStore.PartitionInfo info : partitionStore.getManifest().values()) {
+          if (info.getFavoriteCount() > 0 && !loadedDates.contains(info.getDate())) {
+            dates.add(info.getDate());
           }
         }
+        return dates.isEmpty() ? new ArrayList<ClipboardEntry>() : loadPartitions(dates, false);
+      } catch (IOException e) {
+        Log.error("お気に入りの読み込みに失敗しました: ", e.getMessage());
+        return new ArrayList<>();
+      }
+    }, fileOperationExecutor);
+  }
 
-        if (!entryFound) {
-          System.out.println("削除対象のエントリが見つかりませんでした: " + entry.getId());
-          return false;
-        }
+  public int getUnloadedFavoriteCount() {
+    int count = 0;
+    for (PartitionStore.PartitionInfo info : partitionStore.getManifest().values()) {
+      if (!loadedDates.contains(info.getDate())) {
+        count += info.getFavoriteCount();
+      }
+    }
+    return count;
+  }
 
-        CsvUtil.writeCsvFile(filePath, updatedRows);
-        System.out.println("ファイルからエントリを削除しました: " + entry.getId());
-        return true;
+  // 未読み込みの日付のうち最も新しいもの。すべて読み込み済みならnull
+  public LocalDate getNextUnloadedDate() {
+    for (LocalDate date : getAvailableDataDates()) {
+      if (!loadedDates.contains(date)) {
+        return date;
+      }
+    }
+    return null;
+  }
+
+  // メモリから一部のエントリが外された日付は、次に表示する時にパーティションから読み直す
+  public void markDatesUnloaded(Collection<LocalDate> dates) {
+    loadedDates.removeAll(dates);
+  }
+
+  public boolean isDateLoaded(LocalDate date) {
+    return loadedDates.contains(date);
+  }
+
+  // 読み込み前の日付でも件数を表示できるよう、マニフェストの件数を返す
+  public int getPartitionEntryCount(LocalDate date) {
+    PartitionStore.PartitionInfo info = partitionStore.getInfo(date);
+    return info != null ? info.getEntryCount() : 0;
+  }
 
+  // 保存と同じく、fsyncポリシーが求める同期が済んでから完了する
+  public CompletableFuture<Boolean> deleteEntryAsync(ClipboardEntry entry) {
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    fileOperationExecutor.execute(() -> {
+      try {
+        appendJournalRecord(OP_DELETE, entry.toCsvArray());
+        Log.debug("ファイルからエントリを削除しました: ", entry.getId());
+        acknowledgeAppended(Collections.singletonList(new PendingSave(OP_DELETE, entry, future)));
+      } catch (IOException | RuntimeException e) {
+        Log.error("エントリの削除に失敗しました: ", e);
+        future.complete(false);
+      }
+    });
+    return future;
+  }
+
+  public CompletableFuture<Boolean> updateEntryAsync(ClipboardEntry entry) {
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    fileOperationExecutor.execute(() -> {
+      try {
+        appendJournalRecord(OP_UPDATE, entry.toCsvArray());
+        Log.debug("エントリを更新しました: ", entry.getId());
+        acknowledgeAppended(Collections.singletonList(new PendingSave(OP_UPDATE, entry, future)));
+      } catch (IOException | RuntimeException e) {
+        Log.error("エントリの更新に失敗しました: ", e);
+        future.complete(false);
+      }
+    });
+    return future;
+  }
+
+  // ジャーナルを日付別パーティションに畳み込み、ジャーナルを空にする
+  public CompletableFuture<Boolean> compactJournalAsync() {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        compactJournal();
+        return true;
       } catch (IOException e) {
-        System.err.println("エントリの削除に失敗しました: " + e.getMessage());
-        e.printStackTrace();
+        Log.error("ジャーナルの圧縮に失敗しました: ", e.getMessage());
         return false;
       }
     }, fileOperationExecutor);
   }
 
-  public CompletableFuture<Boolean> updateEntryAsync(ClipboardEntry entry) {
+  // ジャーナルに記録のある日付のパーティションだけを書き直す。各パーティションは
+  // 一時ファイル＋リネームで置き換えるため、途中でクラッシュしても旧パーティション＋ジャーナルか
+  // 新パーティションのどちらかが必ず残る
+  private void compactJournal() throws IOException {
+    DataDirectoryLock.Handle lock = lockDataDirectory();
+    try {
+      compactJournalLocked();
+    } finally {
+      lock.release();
+    }
+  }
+
+  private void compactJournalLocked() throws IOException {
+    List<String[]> journalRecords = readJournalRecords();
+    if (journalRecords.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+
+    Map<LocalDate, List<String[]>> recordsByDate = groupJournalRecordsByDate(journalRecords);
+    boolean blobDeleted = false;
+    for (String[] record : journalRecords) {
+      if (record.length >= JOURNAL_RECORD_FIELDS && OP_DELETE.equals(record[0])
+          && record[4].startsWith(ClipboardEntry.BLOB_CATEGORY_PREFIX)) {
+        blobDeleted = true;
+      }
+    }
+
+    for (Map.Entry<LocalDate, List<String[]>> partition : recordsByDate.entrySet()) {
+      Map<String, ClipboardEntry> entriesById = new LinkedHashMap<>();
+      for (ClipboardEntry entry : partitionStore.readPartition(partition.getKey())) {
+        entriesById.put(entry.getId(), entry);
+      }
+      for (String[] record : partition.getValue()) {
+        applyJournalRecord(entriesById, record);
+      }
+      partitionStore.writePartition(partition.getKey(), new ArrayList<>(entriesById.values()));
+    }
+
+    // パーティション置き換え後にクラッシュしても、ジャーナルの再生は冪等なので問題ない
+    Files.deleteIfExists(Paths.get(getJournalFilePath()));
+    journalDates.clear();
+    rememberJournalPosition();
+
+    // 本文ファイルの参照を確かめるには全パーティションを読む必要があるため、退避済みの削除があった時だけ行う
+    if (blobDeleted) {
+      deleteUnreferencedBlobs();
+    }
+
+    journalRecordCount = 0;
+    garbageRecordCount = 0;
+    liveEntryCount = partitionStore.getTotalEntryCount();
+    compactionTime.recordSince(start);
+    Log.info("ジャーナルを圧縮しました。更新したパーティション数: ", recordsByDate.size());
+  }
+
+  private void deleteUnreferencedBlobs() throws IOException {
+    Set<ContentHash> referenced = new HashSet<>();
+    for (LocalDate date : partitionStore.getDates()) {
+      for (ClipboardEntry entry : partitionStore.readPartition(date)) {
+        if (entry.isSpilled()) {
+          referenced.add(entry.getContentHash());
+        }
+      }
+    }
+    blobStore.deleteUnreferenced(referenced);
+  }
+
+  // 指定日数より古いパーティションを破棄する。お気に入りを含む日はお気に入りだけを残して書き直す
+  public CompletableFuture<Integer> dropOldPartitionsAsync(int daysToKeep) {
     return CompletableFuture.supplyAsync(() -> {
       try {
-        String filePath = getSingleCsvFilePath();
-
-        if (!CsvUtil.isValidCsvFile(filePath)) {
-          return false;
+        DataDirectoryLock.Handle lock = lockDataDirectory();
+        try {
+          // ジャーナル上の古い日付の追加も対象にするため、先に畳み込む
+          compactJournalLocked();
+          LocalDate cutoff = LocalDate.now().minusDays(daysToKeep);
+          int dropped = partitionStore.dropBefore(cutoff);
+          if (dropped > 0) {
+            deleteUnreferencedBlobs();
+          }
+          liveEntryCount = partitionStore.getTotalEntryCount();
+          Log.info("古いパーティションを破棄しました。エントリ数: ", dropped);
+          return dropped;
+        } finally {
+          lock.release();
         }
+      } catch (IOException e) {
+        Log.error("パーティションの破棄に失敗しました: ", e.getMessage());
+        return 0;
+      }
+    }, fileOperationExecutor);
+  }
 
-        List<String[]> rows = CsvUtil.readCsvFile(filePath);
-        List<String[]> updatedRows = new ArrayList<>();
+  // 旧形式の単一スナップショット（パーティション移行前）
+  public String getSegmentFilePath() {
+    return dataDirectory + File.separator + SEGMENT_FILE_NAME;
+  }
 
-        // ヘッダー行を保持
-        if (!rows.isEmpty()) {
-          updatedRows.add(rows.get(0));
+  public String getPartitionDirectory() {
+    return dataDirectory + File.separator + PARTITION_DIRECTORY_NAME;
+  }
+
+  // 現在の履歴全体をCSV形式で書き出す（バイナリ形式でもCSVは入出力用に使える）
+  public CompletableFuture<Boolean> exportCsvAsync(String filePath) {
+    return exportAsync(Paths.get(filePath), HistoryArchive.Filter.all(), null).thenApply(count -> count >= 0);
+  }
+
+  // 条件に合うエントリを1日分ずつ読んで書き出すので、履歴の量によらずメモリ使用量は一定。
+  // 圧縮形式は書き出し先の拡張子で決まる。書き出した件数を返し、失敗した場合は-1
+  public CompletableFuture<Integer> exportAsync(Path target, HistoryArchive.Filter filter,
+      HistoryArchive.ProgressListener progressListener) {
+    return CompletableFuture.supplyAsync(() -> {
+      long start = System.nanoTime();
+      try {
+        int exported = exportHistory(target, filter, progressListener);
+        Log.info("履歴を書き出しました。件数: ", exported);
+        exportTime.recordSince(start);
+        return exported;
+      } catch (IOException | UncheckedIOException e) {
+        Log.error("履歴の書き出しに失敗しました: ", e.getMessage());
+        return -1;
+      }
+    }, transferExecutor);
+  }
+
+  private int exportHistory(Path target, HistoryArchive.Filter filter,
+      HistoryArchive.ProgressListener progressListener) throws IOException {
+    // ジャーナルは圧縮で小さく保たれているので先に読み、日付ごとに分けておく
+    Map<LocalDate, List<String[]>> journalByDate = groupJournalRecordsByDate(readJournalRecords());
+    Set<LocalDate> dates = new TreeSet<>(Comparator.reverseOrder());
+    long total = 0;
+    for (LocalDate date : partitionStore.getDates()) {
+      if (filter.includesDate(date)) {
+        dates.add(date);
+        total += getPartitionEntryCount(date);
+      }
+    }
+    for (Map.Entry<LocalDate, List<String[]>> journal : journalByDate.entrySet()) {
+      if (filter.includesDate(journal.getKey())) {
+        dates.add(journal.getKey());
+        total += journal.getValue().size();
+      }
+    }
+
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    int exported = 0;
+    long processed = 0;
+    try (Writer writer = HistoryArchive.openWriter(temp, HistoryArchive.Compression.forPath(target))) {
+      CsvUtil.writeCsvLine(writer, CsvUtil.createCsvHeader());
+      for (LocalDate date : dates) {
+        Map<String, ClipboardEntry> entriesById = new LinkedHashMap<>();
+        for (ClipboardEntry entry : partitionStore.readPartition(date)) {
+          entriesById.put(entry.getId(), entry);
+        }
+        for (String[] record : journalByDate.getOrDefault(date, Collections.emptyList())) {
+          applyJournalRecord(entriesById, record);
         }
 
-        boolean found = false;
-        for (int i = 1; i < rows.size(); i++) {
-          String[] row = rows.get(i);
-          if (row.length > 0 && row[0].equals(entry.getId())) {
-            updatedRows.add(entry.toCsvArray());
-            found = true;
-          } else {
-            updatedRows.add(row);
+        List<ClipboardEntry> entries = new ArrayList<>(entriesById.values());
+        entries.sort((e1, e2) -> Long.compare(e2.getEpochMillis(), e1.getEpochMillis()));
+        for (ClipboardEntry entry : entries) {
+          if (filter.matches(entry)) {
+            CsvUtil.writeCsvLine(writer, HistoryArchive.toPortableRow(entry));
+            exported++;
           }
         }
 
-        if (found) {
-          CsvUtil.writeCsvFile(filePath, updatedRows);
-          System.out.println("エントリを更新しました: " + entry.getId());
-          return true;
+        processed += entries.size();
+        if (progressListener != null && total > 0) {
+          progressListener.onProgress(processed, Math.min(1.0, (double) processed / total));
         }
+      }
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    CsvUtil.moveAtomically(temp, target);
+    return exported;
+  }
 
-        System.out.println("更新対象のエントリが見つかりませんでした: " + entry.getId());
-        return false;
+  // 書き出したファイル（無圧縮・gzip・zip）から読み込む。IMPORT_CHUNK_SIZE件程度ずつ日の区切りで
+  // パーティションに取り込むため、ファイルの大きさによらずメモリ使用量は一定。同じIDや同じ日の同じ内容は取り込まない。
+  // duplicateCheckには、メモリ上のエントリとの重複判定を渡す
+  public CompletableFuture<HistoryArchive.ImportResult> importAsync(Path source, HistoryArchive.Filter filter,
+      Predicate<ClipboardEntry> duplicateCheck, HistoryArchive.ProgressListener progressListener) {
+    return CompletableFuture.supplyAsync(() -> {
+      long start = System.nanoTime();
+      try {
+        HistoryArchive.ImportResult result = importHistory(source, filter, duplicateCheck, progressListener);
+        Log.info("履歴を取り込みました。件数: ", result.getImported());
+        importTime.recordSince(start);
+        return result;
+      } catch (IOException | UncheckedIOException | CompletionException e) {
+        Log.error("履歴の取り込みに失敗しました: ", e.getMessage());
+        return HistoryArchive.ImportResult.failed(e.getMessage());
+      }
+    }, transferExecutor);
+  }
 
+  private HistoryArchive.ImportResult importHistory(Path source, HistoryArchive.Filter filter,
+      Predicate<ClipboardEntry> duplicateCheck, HistoryArchive.ProgressListener progressListener)
+      throws IOException {
+    long size = Math.max(1, Files.size(source));
+    int imported = 0;
+    int skipped = 0;
+    long processed = 0;
+    Set<LocalDate> dates = new TreeSet<>(Comparator.reverseOrder());
+    Map<LocalDate, List<ClipboardEntry>> pending = new LinkedHashMap<>();
+    int pendingCount = 0;
+
+    // ジャーナル上のエントリとも重複を判定できるよう、取り込みの前に一度だけパーティションへ畳み込む
+    CompletableFuture.runAsync(() -> {
+      try {
+        compactJournal();
       } catch (IOException e) {
-        System.err.println("エントリの更新に失敗しました: " + e.getMessage());
-        e.printStackTrace();
-        return false;
+        throw new UncheckedIOException(e);
       }
-    }, fileOperationExecutor);
+    }, fileOperationExecutor).join();
+
+    try (HistoryArchive.Reader reader = HistoryArchive.openReader(source)) {
+      String[] row;
+      while ((row = reader.next()) != null) {
+        if (row.length > 0 && "id".equals(row[0])) {
+          continue;
+        }
+        processed++;
+
+        ClipboardEntry entry = row.length >= 5 ? parseEntry(row, 0) : null;
+        if (entry == null || !filter.matches(entry)
+            || (duplicateCheck != null && duplicateCheck.test(entry))) {
+          skipped++;
+          continue;
+        }
+
+        // 書き出しは1日分ずつなので、別の日に移ったらそれまでの日の分はもう来ない。
+        // そこでまとめて書けば各パーティションは1回ずつの書き直しで済む。
+        // 1日分が極端に多い場合だけ、メモリを抑えるために途中でも書き出す
+        if (pendingCount >= IMPORT_CHUNK_SIZE
+            && (!pending.containsKey(entry.getDate()) || pendingCount >= IMPORT_CHUNK_SIZE * 4)) {
+          int added = mergeImportedEntries(pending, dates);
+          imported += added;
+          skipped += pendingCount - added;
+          pending.clear();
+          pendingCount = 0;
+          if (progressListener != null) {
+            progressListener.onProgress(processed, Math.min(1.0, (double) reader.getBytesRead() / size));
+          }
+        }
+        pending.computeIfAbsent(entry.getDate(), d -> new ArrayList<>()).add(entry);
+        pendingCount++;
+      }
+    }
+
+    if (pendingCount > 0) {
+      int added = mergeImportedEntries(pending, dates);
+      imported += added;
+      skipped += pendingCount - added;
+    }
+    if (progressListener != null) {
+      progressListener.onProgress(processed, 1.0);
+    }
+    return new HistoryArchive.ImportResult(imported, skipped, dates, null);
   }
 
-  public List<LocalDate> getAvailableDataDates() {
-    List<LocalDate> dates = new ArrayList<>();
-    File dir = new File(dataDirectory);
+  // パーティションを書き換えるのでFileManager-Threadで実行する（読み込みは呼び出し元のスレッドのまま）
+  private int mergeImportedEntries(Map<LocalDate, List<ClipboardEntry>> entriesByDate,
+      Set<LocalDate> importedDates) {
+    Map<LocalDate, List<ClipboardEntry>> batch = new LinkedHashMap<>(entriesByDate);
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        DataDirectoryLock.Handle lock = lockDataDirectory();
+        try {
+          int added = 0;
+          for (Map.Entry<LocalDate, List<ClipboardEntry>> partition : batch.entrySet()) {
+            Map<String, ClipboardEntry> entriesById = new LinkedHashMap<>();
+            Set<ContentHash> contents = new HashSet<>();
+            for (ClipboardEntry entry : partitionStore.readPartition(partition.getKey())) {
+              entriesById.put(entry.getId(), entry);
+              contents.add(entry.getContentHash());
+            }
 
-    if (dir.exists() && dir.isDirectory()) {
-      File[] files = dir.listFiles((dir1, name) -> name.endsWith(".csv"));
-      if (files != null) {
-        for (File file : files) {
-          String fileName = file.getName();
-          String dateStr = fileName.replace(".csv", "");
-          try {
-            LocalDate date = DateUtil.parseDateFromFile(dateStr);
-            dates.add(date);
-          } catch (Exception e) {
-            System.err.println("ファイル名の解析に失敗しました: " + fileName);
+            int before = entriesById.size();
+            for (ClipboardEntry entry : partition.getValue()) {
+              if (!entriesById.containsKey(entry.getId()) && contents.add(entry.getContentHash())) {
+                spillIfLarge(entry);
+                entriesById.put(entry.getId(), entry);
+              }
+            }
+            if (entriesById.size() > before) {
+              partitionStore.writePartition(partition.getKey(), new ArrayList<>(entriesById.values()));
+              importedDates.add(partition.getKey());
+              added += entriesById.size() - before;
+            }
           }
+          liveEntryCount += added;
+          return added;
+        } finally {
+          lock.release();
         }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, fileOperationExecutor).join();
+  }
+
+  private Map<LocalDate, List<String[]>> groupJournalRecordsByDate(List<String[]> journalRecords) {
+    Map<LocalDate, List<String[]>> recordsByDate = new LinkedHashMap<>();
+    for (String[] record : journalRecords) {
+      LocalDate date = getJournalRecordDate(record);
+      if (date != null) {
+        recordsByDate.computeIfAbsent(date, d -> new ArrayList<>()).add(record);
       }
     }
+    return recordsByDate;
+  }
 
-    dates.sort((d1, d2) -> d2.compareTo(d1));
-    return dates;
+  public StorageFormat getStorageFormat() {
+    return storageFormat;
+  }
+
+  private void appendJournalRecord(String op, String[] row) throws IOException {
+    List<String[]> rows = new ArrayList<>();
+    rows.add(row);
+    appendJournalRecords(op, rows);
+  }
+
+  // 各レコードの末尾にはチェックサム列が付く（読み込み時に検証して取り除く）
+  private void appendJournalRecords(String op, List<String[]> rows) throws IOException {
+    List<String[]> records = new ArrayList<>(rows.size());
+    List<String[]> checksummed = new ArrayList<>(rows.size());
+    for (String[] row : rows) {
+      String[] record = new String[row.length + 1];
+      record[0] = op;
+      System.arraycopy(row, 0, record, 1, row.length);
+      if (OP_DELETE.equals(op)) {
+        // 削除レコードには本文は不要
+        record[record.length - 1] = "";
+      }
+      records.add(record);
+      checksummed.add(CsvUtil.withChecksum(record));
+    }
+
+    DataDirectoryLock.Handle lock = lockDataDirectory();
+    try {
+      CsvUtil.appendCsvLines(getJournalFilePath(), checksummed);
+      rememberJournalPosition();
+    } finally {
+      lock.release();
+    }
+    journalDirty = true;
+    for (String[] record : records) {
+      countJournalRecord(op);
+      trackJournalDate(record);
+    }
+    lastWriteMillis = System.currentTimeMillis();
+  }
+
+  private void countJournalRecord(String op) {
+    journalRecordCount++;
+    switch (op) {
+      case OP_ADD:
+        liveEntryCount++;
+        break;
+      case OP_UPDATE:
+        garbageRecordCount++;
+        break;
+      case OP_DELETE:
+        // 削除レコード自身と削除された行の両方が不要になる
+        garbageRecordCount += 2;
+        liveEntryCount = Math.max(0, liveEntryCount - 1);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private List<String[]> readJournalRecords() throws IOException {
+    String journalPath = getJournalFilePath();
+    if (!CsvUtil.isValidCsvFile(journalPath)) {
+      return new ArrayList<>();
+    }
+
+    // 壊れたレコード以降は信用できないので、その手前までを再生する
+    List<String[]> rawRecords = CsvUtil.readCsvFile(journalPath);
+    int validCount = countValidJournalRecords(rawRecords);
+    List<String[]> records = new ArrayList<>(validCount);
+    for (String[] record : rawRecords.subList(0, validCount)) {
+      records.add(record.length == JOURNAL_RECORD_FIELDS + 1 ? CsvUtil.stripChecksum(record) : record);
+    }
+    return records;
+  }
+
+  // 先頭から連続して検証できたレコード数を返す。
+  // チェックサム列のない旧形式のレコードは、チェックサム付きのレコードより前にある場合だけ受け入れる
+  private static int countValidJournalRecords(List<String[]> rawRecords) {
+    boolean checksummed = false;
+    for (int i = 0; i < rawRecords.size(); i++) {
+      String[] record = rawRecords.get(i);
+      if (record.length == JOURNAL_RECORD_FIELDS + 1 && CsvUtil.hasValidChecksum(record)) {
+        checksummed = true;
+      } else if (checksummed || record.length != JOURNAL_RECORD_FIELDS) {
+        return i;
+      }
+    }
+    return rawRecords.size();
+  }
+
+  // ジャーナルの各レコードはエントリのタイムスタンプを持つので、そこから所属するパーティションが決まる
+  private LocalDate getJournalRecordDate(String[] record) {
+    if (record.length < JOURNAL_RECORD_FIELDS) {
+      return null;
+    }
+    return DateUtil.toLocalDate(DateUtil.parseTimestampMillis(record[2]));
+  }
+
+  private void trackJournalDate(String[] record) {
+    LocalDate date = getJournalRecordDate(record);
+    if (date != null && OP_ADD.equals(record[0])) {
+      journalDates.add(date);
+    }
+  }
+
+  // 各レコードは冪等なので、同じレコードを二度再生しても結果は変わらない
+  private void applyJournalRecord(Map<String, ClipboardEntry> entriesById, String[] record) {
+    if (record.length < JOURNAL_RECORD_FIELDS) {
+      return;
+    }
+
+    switch (record[0]) {
+      case OP_ADD: {
+        ClipboardEntry entry = parseEntry(record, 1);
+        if (entry != null) {
+          entriesById.putIfAbsent(entry.getId(), entry);
+        }
+        break;
+      }
+      case OP_UPDATE: {
+        ClipboardEntry existing = entriesById.get(record[1]);
+        if (existing != null) {
+          existing.setFavorite(Boolean.parseBoolean(record[3]));
+        }
+        break;
+      }
+      case OP_DELETE:
+        entriesById.remove(record[1]);
+        break;
+      default:
+        Log.warn("不明なジャーナルレコード: ", record[0]);
+    }
+  }
+
+  // カテゴリ欄は "blob:<ハッシュ>:<文字数>"、本文欄にはプレビューが入っている
+  private ClipboardEntry parseBlobEntry(String id, long epochMillis, boolean isFavorite,
+      String category, String previewText) {
+    String[] parts = category.substring(ClipboardEntry.BLOB_CATEGORY_PREFIX.length()).split(":");
+    ContentHash hash = ContentHash.fromHex(parts[0]);
+    int textLength = Integer.parseInt(parts[1]);
+    return new ClipboardEntry(id, epochMillis, isFavorite, previewText, textLength, hash,
+        () -> blobStore.read(hash));
+  }
+
+  private ClipboardEntry parseEntry(String[] row, int offset) {
+    if (row.length < offset + 5) {
+      return null;
+    }
+
+    try {
+      String id = row[offset];
+      long epochMillis = DateUtil.parseTimestampMillis(row[offset + 1]);
+      boolean isFavorite = Boolean.parseBoolean(row[offset + 2]);
+      String category = row[offset + 3];
+      String text = row[offset + 4];
+      if (category.startsWith(ClipboardEntry.BLOB_CATEGORY_PREFIX)) {
+        return parseBlobEntry(id, epochMillis, isFavorite, category, text);
+      }
+      return new ClipboardEntry(id, epochMillis, isFavorite, text);
+    } catch (Exception e) {
+      Log.warn("エントリの解析に失敗しました: ", e.getMessage());
+      return null;
+    }
+  }
+
+  // マニフェストに載っている日付と、まだジャーナルにしかない日付（新しい順）
+  public List<LocalDate> getAvailableDataDates() {
+    Set<LocalDate> dates = new HashSet<>(partitionStore.getDates());
+    dates.addAll(journalDates);
+
+    List<LocalDate> sorted = new ArrayList<>(dates);
+    sorted.sort(Comparator.reverseOrder());
+    return sorted;
   }
 
   public CompletableFuture<Boolean> clearAllEntriesAsync() {
     return CompletableFuture.supplyAsync(() -> {
       try {
-        String csvFilePath = getSingleCsvFilePath();
-        File csvFile = new File(csvFilePath);
-
-        if (csvFile.exists()) {
-          // ファイルの内容を空にする（ヘッダーのみ残す）
-          List<String[]> emptyData = new ArrayList<>();
-          emptyData.add(CsvUtil.createCsvHeader());
-          CsvUtil.writeCsvFile(csvFilePath, emptyData);
-          return true;
-        } else {
-          // ファイルが存在しない場合は成功とみなす
+        DataDirectoryLock.Handle lock = lockDataDirectory();
+        try {
+          partitionStore.clear();
+          Files.deleteIfExists(Paths.get(getJournalFilePath()));
+          journalDates.clear();
+          rememberJournalPosition();
+          blobStore.deleteUnreferenced(new HashSet<>());
+          journalRecordCount = 0;
+          garbageRecordCount = 0;
+          liveEntryCount = 0;
           return true;
+        } finally {
+          lock.release();
         }
       } catch (Exception e) {
-        System.err.println("全エントリ削除中にエラーが発生: " + e.getMessage());
-        e.printStackTrace();
+        Log.error("全エントリ削除中にエラーが発生: ", e);
         return false;
       }
     }, fileOperationExecutor);
@@ -298,9 +1541,38 @@ public class FileManager {
     return dataDirectory;
   }
 
+  public CompactionPolicy getCompactionPolicy() {
+    return compactionPolicy;
+  }
+
+  // 書き込み待ちの保存を書き出して同期し終えるまで待つ。FileManager-Threadはデーモンなので、
+  // 戻る前に終わらせないと直後のSystem.exitで積まれていた分が黙って失われる
   public void shutdown() {
-    if (fileOperationExecutor instanceof java.util.concurrent.ExecutorService) {
-      ((java.util.concurrent.ExecutorService) fileOperationExecutor).shutdown();
+    WatchService service = watchService;
+    if (service != null) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        Log.debug("変更監視の停止に失敗しました: ", e.getMessage());
+      }
+    }
+    try {
+      fileOperationExecutor.execute(() -> {
+        drainSaveQueue();
+        syncJournal();
+      });
+    } catch (RejectedExecutionException e) {
+      // 既に停止済み
+    }
+    transferExecutor.shutdown();
+    fileOperationExecutor.shutdown();
+
+    try {
+      if (!fileOperationExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        Log.error("保存の完了を待たずに終了します。書き込み待ちの件数: ", saveQueue.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 }
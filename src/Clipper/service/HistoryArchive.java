@@ -0,0 +1,259 @@
+package Clipper.service;
+
+import Clipper.model.ClipboardEntry;
+import Clipper.util.CsvUtil;
+import Clipper.util.DateUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// 履歴のエクスポート／インポート用ファイル。中身は1行1エントリのCSVで、
+// 別のマシンでもそのまま読めるよう本文は退避先を参照せず全文を書き、文字コードはUTF-8に固定する
+public final class HistoryArchive {
+
+  private static final String ZIP_ENTRY_NAME = "clipboard_history.csv";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  public enum Compression {
+    NONE,
+    GZIP,
+    ZIP;
+
+    // 書き出し先の拡張子から決める（.gz / .zip、それ以外は無圧縮）
+    public static Compression forPath(Path path) {
+      String name = path.getFileName().toString().toLowerCase();
+      if (name.endsWith(".gz")) {
+        return GZIP;
+      }
+      if (name.endsWith(".zip")) {
+        return ZIP;
+      }
+      return NONE;
+    }
+  }
+
+  // 対象とするエントリの条件。日付は両端を含み、nullは制限なし
+  public static class Filter {
+    private final LocalDate from;
+    private final LocalDate to;
+    private final boolean favoritesOnly;
+
+    public Filter(LocalDate from, LocalDate to, boolean favoritesOnly) {
+      this.from = from;
+      this.to = to;
+      this.favoritesOnly = favoritesOnly;
+    }
+
+    public static Filter all() {
+      return new Filter(null, null, false);
+    }
+
+    public boolean includesDate(LocalDate date) {
+      return (from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to));
+    }
+
+    public boolean matches(ClipboardEntry entry) {
+      return (!favoritesOnly || entry.isFavorite()) && includesDate(entry.getDate());
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Filter{from=%s, to=%s, favoritesOnly=%b}", from, to, favoritesOnly);
+    }
+  }
+
+  // 処理済みの件数と進捗率（0.0〜1.0）。呼び出し元のスレッドは問わない
+  public interface ProgressListener {
+    void onProgress(long processed, double fraction);
+  }
+
+  public static class ImportResult {
+    private final int imported;
+    private final int skipped;
+    private final Set<LocalDate> dates;
+    private final String error;
+
+    ImportResult(int imported, int skipped, Set<LocalDate> dates, String error) {
+      this.imported = imported;
+      this.skipped = skipped;
+      this.dates = dates;
+      this.error = error;
+    }
+
+    static ImportResult failed(String error) {
+      return new ImportResult(0, 0, Collections.emptySet(), error);
+    }
+
+    public int getImported() {
+      return imported;
+    }
+
+    // 条件に合わなかったもの、重複、解析できなかった行の合計
+    public int getSkipped() {
+      return skipped;
+    }
+
+    // 取り込み先のパーティションの日付
+    public Set<LocalDate> getDates() {
+      return dates;
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    public String getError() {
+      return error;
+    }
+  }
+
+  private HistoryArchive() {
+  }
+
+  public static Writer openWriter(Path path, Compression compression) throws IOException {
+    OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+    try {
+      switch (compression) {
+        case GZIP:
+          out = new GZIPOutputStream(out, BUFFER_SIZE);
+          break;
+        case ZIP: {
+          ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+          zip.putNextEntry(new ZipEntry(ZIP_ENTRY_NAME));
+          out = zip;
+          break;
+        }
+        default:
+          break;
+      }
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+  }
+
+  // 退避済みの本文もここで読み込んで全文を書く（呼び出し側は1件ずつ書くので一度に載るのは1件分だけ）
+  public static String[] toPortableRow(ClipboardEntry entry) {
+    return new String[] {
+        entry.getId(),
+        DateUtil.formatTimestamp(entry.getEpochMillis()),
+        String.valueOf(entry.isFavorite()),
+        "default",
+        entry.getText()
+    };
+  }
+
+  // 圧縮形式は拡張子ではなく先頭のバイト列で判定する
+  public static Reader openReader(Path path) throws IOException {
+    CountingInputStream counting = new CountingInputStream(Files.newInputStream(path));
+    InputStream in = new BufferedInputStream(counting, BUFFER_SIZE);
+    try {
+      in.mark(4);
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if (first == 0x1F && second == 0x8B) {
+        in = new GZIPInputStream(in, BUFFER_SIZE);
+      } else if (first == 'P' && second == 'K') {
+        ZipInputStream zip = new ZipInputStream(in, StandardCharsets.UTF_8);
+        ZipEntry entry = zip.getNextEntry();
+        while (entry != null && entry.isDirectory()) {
+          entry = zip.getNextEntry();
+        }
+        if (entry == null) {
+          throw new IOException("ZIPファイルにCSVが含まれていません: " + path);
+        }
+        in = zip;
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new Reader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE), counting);
+  }
+
+  // 1行ずつ読み進めるリーダー。進捗表示用に、圧縮後のファイルを何バイト読んだかを返す
+  public static class Reader implements Closeable {
+    private final CsvUtil.CsvReader rows;
+    private final CountingInputStream counting;
+
+    private Reader(java.io.Reader reader, CountingInputStream counting) {
+      this.rows = new CsvUtil.CsvReader(reader);
+      this.counting = counting;
+    }
+
+    // 終端ではnull
+    public String[] next() throws IOException {
+      try {
+        return rows.hasNext() ? rows.next() : null;
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    public long getBytesRead() {
+      return counting.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      rows.close();
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
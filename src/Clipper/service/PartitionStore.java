@@ -0,0 +1,311 @@
+package Clipper.service;
+
+import Clipper.model.ClipboardEntry;
+import Clipper.util.CsvUtil;
+import Clipper.util.DateUtil;
+import Clipper.util.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// 日付ごとのスナップショット（パーティション）と、その一覧を記録したマニフェストを管理する。
+// 各ファイルの置き換えは一時ファイル＋リネームで行う
+public class PartitionStore {
+
+  public static final String MANIFEST_FILE_NAME = "manifest.csv";
+
+  public static class PartitionInfo {
+    private final LocalDate date;
+    private final int entryCount;
+    private final int favoriteCount;
+
+    public PartitionInfo(LocalDate date, int entryCount, int favoriteCount) {
+      this.date = date;
+      this.entryCount = entryCount;
+      this.favoriteCount = favoriteCount;
+    }
+
+    public LocalDate getDate() {
+      return date;
+    }
+
+    public int getEntryCount() {
+      return entryCount;
+    }
+
+    public int getFavoriteCount() {
+      return favoriteCount;
+    }
+  }
+
+  private final Path partitionDirectory;
+  private final FileManager.StorageFormat storageFormat;
+  private final BlobStore blobStore;
+  private final Function<String[], ClipboardEntry> csvRowParser;
+  // 新しい日付順。UIスレッドからも参照されるため並行アクセス可能なマップを使う
+  private final NavigableMap<LocalDate, PartitionInfo> manifest =
+      new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+  // 最後に読み書きしたときのマニフェストの更新時刻（他のプロセスによる書き換えの検出用）
+  private FileTime manifestModifiedTime;
+
+  public PartitionStore(Path partitionDirectory, FileManager.StorageFormat storageFormat, BlobStore blobStore,
+      Function<String[], ClipboardEntry> csvRowParser) {
+    this.partitionDirectory = partitionDirectory;
+    this.storageFormat = storageFormat;
+    this.blobStore = blobStore;
+    this.csvRowParser = csvRowParser;
+  }
+
+  public boolean hasManifest() {
+    return Files.exists(getManifestPath());
+  }
+
+  // 読み込み中も他のスレッドが一覧を参照できるよう、読み終えてから差し替える
+  public void loadManifest() throws IOException {
+    FileTime modifiedTime = getManifestModifiedTime();
+    Map<LocalDate, PartitionInfo> loaded = new HashMap<>();
+    if (modifiedTime != null) {
+      for (String[] row : CsvUtil.readCsvFile(getManifestPath().toString())) {
+        if (row.length < 3 || row[0].equals("date")) {
+          continue;
+        }
+        try {
+          LocalDate date = LocalDate.parse(row[0], DateUtil.FILE_DATE_FORMATTER);
+          loaded.put(date, new PartitionInfo(date, Integer.parseInt(row[1]), Integer.parseInt(row[2])));
+        } catch (Exception e) {
+          Log.warn("マニフェストの行を解析できませんでした: ", row[0]);
+        }
+      }
+    }
+
+    manifest.keySet().retainAll(loaded.keySet());
+    manifest.putAll(loaded);
+    manifestModifiedTime = modifiedTime;
+  }
+
+  // 他のプロセスがマニフェストを書き換えていれば読み直し、件数が変わった日付を返す
+  public Set<LocalDate> reloadManifestIfChanged() throws IOException {
+    if (Objects.equals(getManifestModifiedTime(), manifestModifiedTime)) {
+      return Collections.emptySet();
+    }
+
+    Map<LocalDate, PartitionInfo> before = new HashMap<>(manifest);
+    loadManifest();
+
+    Set<LocalDate> changed = new TreeSet<>(Comparator.reverseOrder());
+    Set<LocalDate> dates = new HashSet<>(before.keySet());
+    dates.addAll(manifest.keySet());
+    for (LocalDate date : dates) {
+      PartitionInfo previous = before.get(date);
+      PartitionInfo current = manifest.get(date);
+      if (previous == null || current == null
+          || previous.getEntryCount() != current.getEntryCount()
+          || previous.getFavoriteCount() != current.getFavoriteCount()) {
+        changed.add(date);
+      }
+    }
+    return changed;
+  }
+
+  private FileTime getManifestModifiedTime() throws IOException {
+    try {
+      return Files.getLastModifiedTime(getManifestPath());
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private void saveManifest() throws IOException {
+    List<String[]> rows = new ArrayList<>();
+    rows.add(new String[] { "date", "entryCount", "favoriteCount" });
+    for (PartitionInfo info : manifest.values()) {
+      rows.add(new String[] {
+          DateUtil.formatDateForFile(info.getDate()),
+          String.valueOf(info.getEntryCount()),
+          String.valueOf(info.getFavoriteCount())
+      });
+    }
+
+    Files.createDirectories(partitionDirectory);
+    CsvUtil.writeCsvFile(getManifestPath().toString(), rows);
+    manifestModifiedTime = getManifestModifiedTime();
+  }
+
+  private Path getManifestPath() {
+    return partitionDirectory.resolve(MANIFEST_FILE_NAME);
+  }
+
+  public Path getPartitionPath(LocalDate date) {
+    return getPartitionPath(date, storageFormat);
+  }
+
+  private Path getPartitionPath(LocalDate date, FileManager.StorageFormat format) {
+    String extension = format == FileManager.StorageFormat.BINARY ? ".seg" : ".csv";
+    return partitionDirectory.resolve(DateUtil.formatDateForFile(date) + extension);
+  }
+
+  private FileManager.StorageFormat otherFormat() {
+    return storageFormat == FileManager.StorageFormat.BINARY
+        ? FileManager.StorageFormat.CSV
+        : FileManager.StorageFormat.BINARY;
+  }
+
+  // 新しい日付順
+  public List<LocalDate> getDates() {
+    return new ArrayList<>(manifest.keySet());
+  }
+
+  public PartitionInfo getInfo(LocalDate date) {
+    return manifest.get(date);
+  }
+
+  public Map<LocalDate, PartitionInfo> getManifest() {
+    return manifest;
+  }
+
+  public int getTotalEntryCount() {
+    int total = 0;
+    for (PartitionInfo info : manifest.values()) {
+      total += info.getEntryCount();
+    }
+    return total;
+  }
+
+  public List<ClipboardEntry> readPartition(LocalDate date) throws IOException {
+    return readPartition(date, Integer.MAX_VALUE);
+  }
+
+  // 新しい方からlimit件まで読む。
+  // 保存形式を切り替えた直後は、次に書き直されるまで旧形式のファイルを読む
+  public List<ClipboardEntry> readPartition(LocalDate date, int limit) throws IOException {
+    FileManager.StorageFormat format = storageFormat;
+    Path path = getPartitionPath(date, format);
+    if (!Files.exists(path)) {
+      format = otherFormat();
+      path = getPartitionPath(date, format);
+      if (!Files.exists(path)) {
+        return new ArrayList<>();
+      }
+    }
+
+    if (format == FileManager.StorageFormat.BINARY) {
+      try (SegmentFile.Reader reader = SegmentFile.open(path, blobStore)) {
+        return reader.readRange(0, Math.min(limit, reader.size()));
+      }
+    }
+
+    List<ClipboardEntry> entries = new ArrayList<>();
+    try (Stream<String[]> rows = CsvUtil.streamCsvFile(path.toString())) {
+      rows.skip(1)
+          .limit(limit)
+          .map(csvRowParser)
+          .filter(Objects::nonNull)
+          .forEach(entries::add);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return entries;
+  }
+
+  // パーティションを新しい内容で置き換える。空になった場合はファイルごと削除する
+  public void writePartition(LocalDate date, List<ClipboardEntry> entries) throws IOException {
+    Path path = getPartitionPath(date);
+    Files.deleteIfExists(getPartitionPath(date, otherFormat()));
+
+    if (entries.isEmpty()) {
+      Files.deleteIfExists(path);
+      manifest.remove(date);
+      saveManifest();
+      return;
+    }
+
+    List<ClipboardEntry> sorted = new ArrayList<>(entries);
+    sorted.sort((e1, e2) -> Long.compare(e2.getEpochMillis(), e1.getEpochMillis()));
+
+    Files.createDirectories(partitionDirectory);
+    if (storageFormat == FileManager.StorageFormat.BINARY) {
+      Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+      SegmentFile.write(temp, sorted);
+      CsvUtil.moveAtomically(temp, path);
+    } else {
+      List<String[]> rows = new ArrayList<>();
+      rows.add(CsvUtil.createCsvHeader());
+      for (ClipboardEntry entry : sorted) {
+        rows.add(entry.toCsvArray());
+      }
+      CsvUtil.writeCsvFile(path.toString(), rows);
+    }
+
+    int favorites = 0;
+    for (ClipboardEntry entry : sorted) {
+      if (entry.isFavorite()) {
+        favorites++;
+      }
+    }
+    manifest.put(date, new PartitionInfo(date, sorted.size(), favorites));
+    saveManifest();
+  }
+
+  // 指定日より前のパーティションを破棄する。お気に入りを含む日はお気に入りだけを残す
+  public int dropBefore(LocalDate cutoff) throws IOException {
+    int dropped = 0;
+    for (PartitionInfo info : new ArrayList<>(manifest.tailMap(cutoff, false).values())) {
+      if (info.getFavoriteCount() == 0) {
+        Files.deleteIfExists(getPartitionPath(info.getDate(), FileManager.StorageFormat.BINARY));
+        Files.deleteIfExists(getPartitionPath(info.getDate(), FileManager.StorageFormat.CSV));
+        manifest.remove(info.getDate());
+        dropped += info.getEntryCount();
+      } else {
+        List<ClipboardEntry> favorites = new ArrayList<>();
+        for (ClipboardEntry entry : readPartition(info.getDate())) {
+          if (entry.isFavorite()) {
+            favorites.add(entry);
+          }
+        }
+        dropped += info.getEntryCount() - favorites.size();
+        writePartition(info.getDate(), favorites);
+      }
+    }
+    saveManifest();
+    return dropped;
+  }
+
+  public void clear() throws IOException {
+    for (LocalDate date : getDates()) {
+      Files.deleteIfExists(getPartitionPath(date, FileManager.StorageFormat.BINARY));
+      Files.deleteIfExists(getPartitionPath(date, FileManager.StorageFormat.CSV));
+    }
+    manifest.clear();
+    saveManifest();
+  }
+
+  public void deleteStaleTempFiles() throws IOException {
+    if (!Files.isDirectory(partitionDirectory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(partitionDirectory)) {
+      for (Path path : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".tmp"))::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+}
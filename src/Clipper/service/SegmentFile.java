@@ -0,0 +1,260 @@
+package Clipper.service;
+
+import Clipper.model.ClipboardEntry;
+import Clipper.model.ContentHash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * 履歴スナップショットのバイナリ形式
+ *
+ *   ヘッダー (32 bytes): magic "CLPSEG01", version(int), count(int), textBase(long), 予約(long)
+ *   インデックス (40 bytes x count): idMsb(long), idLsb(long), epochMillis(long),
+ *                                    textOffset(long), textLength(int), flags(int)
+ *   テキスト領域: UTF-8 の本文を連結したもの（textOffsetはtextBaseからの相対位置）
+ *
+ * インデックスは固定長なので、i番目のエントリの位置は計算だけで求まる。
+ * 本文を外部ファイルに退避したエントリは FLAG_BLOB を立て、テキスト領域に
+ * "<ハッシュ>:<文字数>:<プレビュー>" を格納する。
+ * IDがUUID形式でないエントリは FLAG_TEXT_ID を立て、テキスト領域の先頭に
+ * IDのバイト数(int)とUTF-8のIDを置く（version 2から。idMsb/idLsbは0）。
+ */
+public class SegmentFile {
+
+  private static final byte[] MAGIC = "CLPSEG01".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 32;
+  private static final int RECORD_SIZE = 40;
+  // 読み込み時に一度に読むインデックスの件数と、まとめて読む本文の上限
+  private static final int INDEX_CHUNK_RECORDS = 4096;
+  private static final int TEXT_CHUNK_BYTES = 8 * 1024 * 1024;
+
+  private static final int FLAG_FAVORITE = 1;
+  private static final int FLAG_BLOB = 2;
+  private static final int FLAG_TEXT_ID = 4;
+
+  public static void write(Path path, List<ClipboardEntry> entries) throws IOException {
+    int count = entries.size();
+    long textBase = HEADER_SIZE + (long) RECORD_SIZE * count;
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.put(MAGIC).putInt(VERSION).putInt(count).putLong(textBase).putLong(0L);
+    header.flip();
+
+    ByteBuffer index = ByteBuffer.allocate(Math.multiplyExact(RECORD_SIZE, count));
+    List<byte[]> texts = new ArrayList<>(count);
+    long textOffset = 0;
+    for (ClipboardEntry entry : entries) {
+      String stored = entry.isSpilled()
+          ? entry.getContentHash().toHex() + ":" + entry.getTextLength() + ":" + entry.getPreviewText()
+          : entry.getText();
+      byte[] text = stored.getBytes(StandardCharsets.UTF_8);
+
+      int flags = (entry.isFavorite() ? FLAG_FAVORITE : 0) | (entry.isSpilled() ? FLAG_BLOB : 0);
+      UUID id = parseUuid(entry.getId());
+      if (id == null) {
+        // IDは書き換えない。ジャーナルの更新・削除レコードはこのIDで対象を探す
+        byte[] rawId = entry.getId().getBytes(StandardCharsets.UTF_8);
+        text = ByteBuffer.allocate(Integer.BYTES + rawId.length + text.length)
+            .putInt(rawId.length).put(rawId).put(text).array();
+        flags |= FLAG_TEXT_ID;
+        id = new UUID(0L, 0L);
+      }
+      texts.add(text);
+
+      index.putLong(id.getMostSignificantBits())
+          .putLong(id.getLeastSignificantBits())
+          .putLong(entry.getEpochMillis())
+          .putLong(textOffset)
+          .putInt(text.length)
+          .putInt(flags);
+      textOffset += text.length;
+    }
+    index.flip();
+
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(channel, header);
+      writeFully(channel, index);
+      for (byte[] text : texts) {
+        writeFully(channel, ByteBuffer.wrap(text));
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // アプリが発行するIDはUUIDの正規形。それ以外（旧版や手で編集したCSV由来）はnull
+  private static UUID parseUuid(String id) {
+    try {
+      UUID uuid = UUID.fromString(id);
+      // fromStringは桁の省略も受け付けるので、文字列に戻して同じになるものだけをUUIDとして扱う
+      return uuid.toString().equals(id) ? uuid : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  public static Reader open(Path path, BlobStore blobStore) throws IOException {
+    return new Reader(path, blobStore);
+  }
+
+  // 必要なエントリの分だけを位置指定で読んでデコードする。
+  // メモリマップは閉じても解放の時期が決まらず、Windowsでは読んだ直後のパーティションを置き換えられないため使わない
+  public static class Reader implements Closeable {
+    private final Path path;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int count;
+    private final long textBase;
+    private final BlobStore blobStore;
+
+    private Reader(Path path, BlobStore blobStore) throws IOException {
+      this.path = path;
+      this.blobStore = blobStore;
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        this.fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+          throw corrupted();
+        }
+        ByteBuffer header = readAt(0, HEADER_SIZE);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        int version = header.getInt();
+        if (!Arrays.equals(magic, MAGIC) || version < 1 || version > VERSION) {
+          throw new IOException("未対応のセグメントファイルです: " + path);
+        }
+
+        this.count = header.getInt();
+        this.textBase = header.getLong();
+        if (count < 0 || textBase != HEADER_SIZE + (long) RECORD_SIZE * count || textBase > fileSize) {
+          throw corrupted();
+        }
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    public int size() {
+      return count;
+    }
+
+    public ClipboardEntry readEntry(int index) throws IOException {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException("index: " + index + ", size: " + count);
+      }
+      return readRange(index, 1).get(0);
+    }
+
+    // from番目から最大limit件を返す（新しい順に保存されているので先頭ページが最新）
+    public List<ClipboardEntry> readRange(int from, int limit) throws IOException {
+      int end = (int) Math.min(count, (long) from + limit);
+      List<ClipboardEntry> entries = new ArrayList<>(Math.max(0, end - from));
+      for (int chunkStart = from; chunkStart < end; chunkStart += INDEX_CHUNK_RECORDS) {
+        readChunk(chunkStart, Math.min(INDEX_CHUNK_RECORDS, end - chunkStart), entries);
+      }
+      return entries;
+    }
+
+    // インデックスをまとめて読み、本文は続いている範囲が小さければ1回で、大きければ1件ずつ読む
+    private void readChunk(int from, int records, List<ClipboardEntry> entries) throws IOException {
+      ByteBuffer index = readAt(HEADER_SIZE + (long) from * RECORD_SIZE, records * RECORD_SIZE);
+      long[] offsets = new long[records];
+      int[] lengths = new int[records];
+      long spanStart = Long.MAX_VALUE;
+      long spanEnd = 0;
+      for (int i = 0; i < records; i++) {
+        offsets[i] = index.getLong(i * RECORD_SIZE + 24);
+        lengths[i] = index.getInt(i * RECORD_SIZE + 32);
+        if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > fileSize - textBase - lengths[i]) {
+          throw corrupted();
+        }
+        spanStart = Math.min(spanStart, offsets[i]);
+        spanEnd = Math.max(spanEnd, offsets[i] + lengths[i]);
+      }
+
+      ByteBuffer span = spanEnd - spanStart <= TEXT_CHUNK_BYTES
+          ? readAt(textBase + spanStart, (int) (spanEnd - spanStart))
+          : null;
+      for (int i = 0; i < records; i++) {
+        int position = i * RECORD_SIZE;
+        UUID id = new UUID(index.getLong(position), index.getLong(position + 8));
+        long epochMillis = index.getLong(position + 16);
+        int flags = index.getInt(position + 36);
+
+        byte[] text = new byte[lengths[i]];
+        if (span != null) {
+          span.get((int) (offsets[i] - spanStart), text);
+        } else {
+          readAt(textBase + offsets[i], lengths[i]).get(text);
+        }
+        entries.add(decode(id, epochMillis, flags, text));
+      }
+    }
+
+    private ClipboardEntry decode(UUID uuid, long epochMillis, int flags, byte[] text) throws IOException {
+      String id = uuid.toString();
+      int textStart = 0;
+      if ((flags & FLAG_TEXT_ID) != 0) {
+        int idLength = text.length >= Integer.BYTES ? ByteBuffer.wrap(text).getInt() : -1;
+        if (idLength < 0 || idLength > text.length - Integer.BYTES) {
+          throw corrupted();
+        }
+        id = new String(text, Integer.BYTES, idLength, StandardCharsets.UTF_8);
+        textStart = Integer.BYTES + idLength;
+      }
+
+      boolean isFavorite = (flags & FLAG_FAVORITE) != 0;
+      String stored = new String(text, textStart, text.length - textStart, StandardCharsets.UTF_8);
+
+      if ((flags & FLAG_BLOB) != 0) {
+        String[] parts = stored.split(":", 3);
+        try {
+          ContentHash hash = ContentHash.fromHex(parts[0]);
+          return new ClipboardEntry(id, epochMillis, isFavorite, parts[2],
+              Integer.parseInt(parts[1]), hash, () -> blobStore.read(hash));
+        } catch (RuntimeException e) {
+          throw corrupted();
+        }
+      }
+      return new ClipboardEntry(id, epochMillis, isFavorite, stored);
+    }
+
+    // 位置と長さはファイルの大きさと照合してから呼ぶ。途中で切れていたら壊れているとみなす
+    private ByteBuffer readAt(long position, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw corrupted();
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+    private IOException corrupted() {
+      return new IOException("セグメントファイルが壊れています: " + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -1,9 +1,24 @@
 package Clipper.util;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
 public class CsvUtil {
 
@@ -11,6 +26,10 @@ public class CsvUtil {
   private static final String CSV_QUOTE = "\"";
   private static final String CSV_ESCAPED_QUOTE = "\"\"";
   private static final Pattern CSV_QUOTE_PATTERN = Pattern.compile("\"");
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int FIELD_SEPARATOR_BYTE = 0x1F;
+
+  private static volatile FsyncPolicy fsyncPolicy = FsyncPolicy.defaults();
 
   public static void writeCsvLine(Writer writer, String[] values) throws IOException {
     if (values == null || values.length == 0) {
@@ -88,49 +107,245 @@ public class CsvUtil {
   }
 
   public static List<String[]> readCsvFile(String filePath) throws IOException {
+    return readCsvFile(filePath, Integer.MAX_VALUE);
+  }
+
+  // 先頭から最大maxRecords件だけ読み込む（残りのファイルには触れない）
+  public static List<String[]> readCsvFile(String filePath, int maxRecords) throws IOException {
     List<String[]> rows = new ArrayList<>();
 
-    try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] fields = parseCsvLine(line);
-        rows.add(fields);
+    try (CsvReader reader = new CsvReader(new BufferedReader(new FileReader(filePath)))) {
+      while (rows.size() < maxRecords && reader.hasNext()) {
+        rows.add(reader.next());
       }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
 
     return rows;
   }
 
-  public static void writeCsvFile(String filePath, List<String[]> rows) throws IOException {
-    File file = new File(filePath);
-    File parentDir = file.getParentFile();
+  // 1レコードずつ遅延して解析するStreamを返す。使い終わったら必ずcloseすること
+  public static Stream<String[]> streamCsvFile(String filePath) throws IOException {
+    CsvReader reader = new CsvReader(new BufferedReader(new FileReader(filePath)));
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(() -> {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
 
-    if (parentDir != null && !parentDir.exists()) {
-      if (!parentDir.mkdirs()) {
-        throw new IOException("ディレクトリの作成に失敗しました: " + parentDir.getAbsolutePath());
+  // 引用符内の改行を含むフィールドにも対応した逐次CSVリーダー
+  public static class CsvReader implements Iterator<String[]>, Closeable {
+    private final Reader reader;
+    private String[] nextRecord;
+    private boolean finished;
+
+    public CsvReader(Reader reader) {
+      // 引用符の閉じ判定で1文字先読みするためmark対応のReaderが必要
+      this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (nextRecord == null && !finished) {
+        try {
+          nextRecord = readRecord();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        finished = nextRecord == null;
       }
+      return nextRecord != null;
     }
 
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+    @Override
+    public String[] next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      String[] record = nextRecord;
+      nextRecord = null;
+      return record;
+    }
+
+    private String[] readRecord() throws IOException {
+      List<String> fields = new ArrayList<>();
+      StringBuilder currentField = new StringBuilder();
+      boolean inQuotes = false;
+      boolean recordStarted = false;
+
+      int c;
+      while ((c = reader.read()) != -1) {
+        if (inQuotes) {
+          if (c == '"') {
+            reader.mark(1);
+            int following = reader.read();
+            if (following == '"') {
+              currentField.append('"');
+            } else {
+              inQuotes = false;
+              if (following != -1) {
+                reader.reset();
+              }
+            }
+          } else {
+            currentField.append((char) c);
+          }
+        } else if (c == '"') {
+          inQuotes = true;
+          recordStarted = true;
+        } else if (c == ',') {
+          fields.add(currentField.toString());
+          currentField.setLength(0);
+          recordStarted = true;
+        } else if (c == '\n' || c == '\r') {
+          if (c == '\r') {
+            reader.mark(1);
+            if (reader.read() != '\n') {
+              reader.reset();
+            }
+          }
+          if (recordStarted || currentField.length() > 0) {
+            fields.add(currentField.toString());
+            return fields.toArray(new String[0]);
+          }
+          // 空行は読み飛ばす
+        } else {
+          currentField.append((char) c);
+          recordStarted = true;
+        }
+      }
+
+      if (recordStarted || currentField.length() > 0) {
+        fields.add(currentField.toString());
+        return fields.toArray(new String[0]);
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  // 一時ファイルに書き切ってから置き換えるので、途中で落ちても元のファイルは壊れない
+  public static void writeCsvFile(String filePath, List<String[]> rows) throws IOException {
+    File file = new File(filePath);
+    createParentDirectory(file);
+
+    Path target = file.toPath();
+    Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp.toFile()))) {
       for (String[] row : rows) {
         writeCsvLine(writer, row);
       }
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    moveAtomically(temp, target);
+  }
+
+  // 書き終えた一時ファイルを同期してから対象ファイルへリネームする。
+  // リネーム前に同期しないと、電源断後に中身が空のファイルだけが残ることがある
+  public static void moveAtomically(Path temp, Path target) throws IOException {
+    if (fsyncPolicy.syncsReplacedFiles()) {
+      force(temp);
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    if (fsyncPolicy.syncsReplacedFiles()) {
+      forceDirectory(target.toAbsolutePath().getParent());
     }
   }
 
   public static void appendCsvLine(String filePath, String[] values) throws IOException {
+    appendCsvLines(filePath, Collections.singletonList(values));
+  }
+
+  // 複数行をまとめて1回のオープン・書き込みで追記する。ALWAYSの場合は戻る前にfsyncする
+  public static void appendCsvLines(String filePath, List<String[]> rows) throws IOException {
     File file = new File(filePath);
-    File parentDir = file.getParentFile();
+    createParentDirectory(file);
+
+    try (FileOutputStream out = new FileOutputStream(file, true);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out))) {
+      for (String[] row : rows) {
+        writeCsvLine(writer, row);
+      }
+      writer.flush();
+      if (fsyncPolicy.syncsEveryAppend()) {
+        out.getChannel().force(false);
+      }
+    }
+  }
+
+  // GROUP_COMMITで溜まった追記分をまとめてディスクに同期する
+  public static void force(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.force(false);
+    }
+  }
 
+  // リネーム自体を永続化するためにディレクトリも同期する。ディレクトリを開けないOSでは諦める
+  private static void forceDirectory(Path directory) {
+    if (directory == null) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      Log.debug("ディレクトリを同期できませんでした: ", directory);
+    }
+  }
+
+  private static void createParentDirectory(File file) throws IOException {
+    File parentDir = file.getParentFile();
     if (parentDir != null && !parentDir.exists()) {
       if (!parentDir.mkdirs()) {
         throw new IOException("ディレクトリの作成に失敗しました: " + parentDir.getAbsolutePath());
       }
     }
+  }
+
+  public static FsyncPolicy getFsyncPolicy() {
+    return fsyncPolicy;
+  }
 
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
-      writeCsvLine(writer, values);
+  public static void setFsyncPolicy(FsyncPolicy policy) {
+    fsyncPolicy = policy;
+  }
+
+  // 末尾にCRC32の列を付けたレコードを返す。読み込み時に、書き込み途中で切れた行や壊れた行を見分けるために使う
+  public static String[] withChecksum(String[] values) {
+    String[] record = Arrays.copyOf(values, values.length + 1);
+    record[values.length] = checksum(values, values.length);
+    return record;
+  }
+
+  public static boolean hasValidChecksum(String[] record) {
+    return record.length > 1 && checksum(record, record.length - 1).equals(record[record.length - 1]);
+  }
+
+  public static String[] stripChecksum(String[] record) {
+    return Arrays.copyOf(record, record.length - 1);
+  }
+
+  private static String checksum(String[] values, int count) {
+    CRC32 crc = new CRC32();
+    for (int i = 0; i < count; i++) {
+      if (values[i] != null) {
+        crc.update(values[i].getBytes(StandardCharsets.UTF_8));
+      }
+      // 区切りも含めないと、隣り合うフィールド間で文字が移動しても同じ値になってしまう
+      crc.update(FIELD_SEPARATOR_BYTE);
     }
+    return Long.toHexString(crc.getValue());
   }
 
   public static String[] createCsvHeader() {
@@ -1,7 +1,10 @@
 package Clipper.util;
 
+import java.time.DateTimeException;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
@@ -13,6 +16,7 @@ public class DateUtil {
   public static final DateTimeFormatter DISPLAY_DATE_FORMATTER = DateTimeFormatter.ofPattern("M月d日");
   public static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
   public static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+  public static final DateTimeFormatter SHORT_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
 
   public static String formatDateForFile(LocalDate date) {
     return date.format(FILE_DATE_FORMATTER);
@@ -48,6 +52,57 @@ public class DateUtil {
     }
   }
 
+  public static String formatTimestamp(long epochMillis) {
+    return fromEpochMillis(epochMillis).format(TIMESTAMP_FORMATTER);
+  }
+
+  public static long toEpochMillis(LocalDateTime dateTime) {
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+
+  public static LocalDateTime fromEpochMillis(long epochMillis) {
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+  }
+
+  public static LocalDate toLocalDate(long epochMillis) {
+    return fromEpochMillis(epochMillis).toLocalDate();
+  }
+
+  // 読み込み時に大量に呼ばれるため、"yyyy-MM-dd HH:mm:ss" 形式は書式解析を通さず数字を直接読む。
+  // 形式が違う場合は通常の解析に回す
+  public static long parseTimestampMillis(String timestampStr) {
+    if (timestampStr != null && timestampStr.length() == 19
+        && timestampStr.charAt(4) == '-' && timestampStr.charAt(7) == '-' && timestampStr.charAt(10) == ' '
+        && timestampStr.charAt(13) == ':' && timestampStr.charAt(16) == ':') {
+      int year = parseDigits(timestampStr, 0, 4);
+      int month = parseDigits(timestampStr, 5, 7);
+      int day = parseDigits(timestampStr, 8, 10);
+      int hour = parseDigits(timestampStr, 11, 13);
+      int minute = parseDigits(timestampStr, 14, 16);
+      int second = parseDigits(timestampStr, 17, 19);
+      if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0) {
+        try {
+          return toEpochMillis(LocalDateTime.of(year, month, day, hour, minute, second));
+        } catch (DateTimeException e) {
+          // 範囲外の値は通常の解析と同じ扱いにする
+        }
+      }
+    }
+    return toEpochMillis(parseTimestamp(timestampStr));
+  }
+
+  private static int parseDigits(String str, int from, int to) {
+    int value = 0;
+    for (int i = from; i < to; i++) {
+      char c = str.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
   public static LocalDate parseDateFromFile(String dateStr) {
     try {
       return LocalDate.parse(dateStr, FILE_DATE_FORMATTER);
@@ -0,0 +1,37 @@
+package Clipper.util;
+
+// 書き込みをどこまでディスクに同期してから完了とみなすか。
+// ALWAYS: 追記のたびにfsyncする。最も安全だが最も遅い
+// GROUP_COMMIT: 追記はOSに任せ、一定間隔ごとにまとめて1回fsyncする。電源断時は直近の間隔分を失いうる
+// OS: fsyncしない。プロセスのクラッシュには耐えるが、電源断には耐えない
+// ファイル全体の置き換え（一時ファイル＋リネーム）はOS以外なら常にfsyncしてからリネームする
+public enum FsyncPolicy {
+  ALWAYS,
+  GROUP_COMMIT,
+  OS;
+
+  private static final long DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS = 200;
+
+  // -Dclipper.fsync=ALWAYS|GROUP_COMMIT|OS で切り替える
+  public static FsyncPolicy defaults() {
+    String value = System.getProperty("clipper.fsync", GROUP_COMMIT.name());
+    try {
+      return valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      Log.warn("不明なfsyncポリシーのため既定値を使います: ", value);
+      return GROUP_COMMIT;
+    }
+  }
+
+  public static long getGroupCommitIntervalMillis() {
+    return Math.max(1, Long.getLong("clipper.fsync.intervalMillis", DEFAULT_GROUP_COMMIT_INTERVAL_MILLIS));
+  }
+
+  public boolean syncsEveryAppend() {
+    return this == ALWAYS;
+  }
+
+  public boolean syncsReplacedFiles() {
+    return this != OS;
+  }
+}
@@ -0,0 +1,142 @@
+package Clipper.util;
+
+// 出力レベル付きのコンソールログ。レベルは -Dclipper.log.level (DEBUG/INFO/WARN/ERROR/OFF) で指定する。
+// 無効なレベルの呼び出しでは何も組み立てないよう、メッセージと値は連結せず別の引数で渡す
+public final class Log {
+
+  public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+  }
+
+  private static volatile Level level = parseLevel(System.getProperty("clipper.log.level", "INFO"));
+
+  private Log() {
+  }
+
+  private static Level parseLevel(String name) {
+    try {
+      return Level.valueOf(name.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      return Level.INFO;
+    }
+  }
+
+  public static Level getLevel() {
+    return level;
+  }
+
+  public static void setLevel(Level newLevel) {
+    level = newLevel;
+  }
+
+  public static boolean isEnabled(Level target) {
+    return target.ordinal() >= level.ordinal() && target != Level.OFF;
+  }
+
+  public static boolean isDebugEnabled() {
+    return isEnabled(Level.DEBUG);
+  }
+
+  public static boolean isInfoEnabled() {
+    return isEnabled(Level.INFO);
+  }
+
+  public static void debug(String message) {
+    if (isEnabled(Level.DEBUG)) {
+      write(Level.DEBUG, message);
+    }
+  }
+
+  public static void debug(String message, long value) {
+    if (isEnabled(Level.DEBUG)) {
+      write(Level.DEBUG, message, value);
+    }
+  }
+
+  public static void debug(String message, Object value) {
+    if (isEnabled(Level.DEBUG)) {
+      write(Level.DEBUG, message, value);
+    }
+  }
+
+  public static void info(String message) {
+    if (isEnabled(Level.INFO)) {
+      write(Level.INFO, message);
+    }
+  }
+
+  public static void info(String message, long value) {
+    if (isEnabled(Level.INFO)) {
+      write(Level.INFO, message, value);
+    }
+  }
+
+  public static void info(String message, Object value) {
+    if (isEnabled(Level.INFO)) {
+      write(Level.INFO, message, value);
+    }
+  }
+
+  public static void warn(String message) {
+    if (isEnabled(Level.WARN)) {
+      write(Level.WARN, message);
+    }
+  }
+
+  public static void warn(String message, Object value) {
+    if (isEnabled(Level.WARN)) {
+      write(Level.WARN, message, value);
+    }
+  }
+
+  public static void error(String message) {
+    if (isEnabled(Level.ERROR)) {
+      write(Level.ERROR, message);
+    }
+  }
+
+  public static void error(String message, Object value) {
+    if (isEnabled(Level.ERROR)) {
+      write(Level.ERROR, message, value);
+    }
+  }
+
+  // 例外はメッセージのみ出力し、スタックトレースはDEBUGレベルの場合だけ出す
+  public static void error(String message, Throwable cause) {
+    if (isEnabled(Level.ERROR)) {
+      write(Level.ERROR, message, cause.getMessage());
+      if (isEnabled(Level.DEBUG)) {
+        cause.printStackTrace();
+      }
+    }
+  }
+
+  private static java.io.PrintStream streamFor(Level target) {
+    return target.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+  }
+
+  private static void write(Level target, String message) {
+    streamFor(target).println(message);
+  }
+
+  // 行が混ざらないようストリーム単位で排他し、文字列の連結はせずに順に書き出す
+  private static void write(Level target, String message, long value) {
+    java.io.PrintStream out = streamFor(target);
+    synchronized (out) {
+      out.print(message);
+      out.println(value);
+    }
+  }
+
+  private static void write(Level target, String message, Object value) {
+    java.io.PrintStream out = streamFor(target);
+    synchronized (out) {
+      out.print(message);
+      out.println(value);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package Clipper.util;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// カウンター・ゲージ・レイテンシーのヒストグラムをまとめる軽量なレジストリ。
+// 記録側はLongAdderへの加算だけで済み、集計は参照された時（JMXなど）に行う
+public final class Metrics implements DynamicMBean {
+
+  public static final String OBJECT_NAME = "Clipper:type=Metrics";
+
+  private static final Metrics DEFAULT = new Metrics();
+
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  public static Metrics getDefault() {
+    return DEFAULT;
+  }
+
+  public Counter counter(String name) {
+    return counters.computeIfAbsent(name, n -> new Counter());
+  }
+
+  public void gauge(String name, LongSupplier supplier) {
+    gauges.put(name, supplier);
+  }
+
+  public Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  public static final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+      value.increment();
+    }
+
+    public void add(long amount) {
+      value.add(amount);
+    }
+
+    public long get() {
+      return value.sum();
+    }
+  }
+
+  // 値（マイクロ秒）を2の冪ごとのバケットに数える。パーセンタイルはバケットの上限で近似する
+  public static final class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void record(long micros) {
+      long value = Math.max(0, micros);
+      // バケットiには 2^(i-1) 以上 2^i 未満の値が入る（0はバケット0）
+      buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+      count.increment();
+      sum.add(value);
+      max.accumulate(value);
+    }
+
+    // System.nanoTime()で取った開始時刻からの経過時間を記録する
+    public void recordSince(long startNanos) {
+      record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public double getMean() {
+      long n = count.sum();
+      return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    public long getPercentile(double percentile) {
+      long n = count.sum();
+      if (n == 0) {
+        return 0;
+      }
+      long threshold = (long) Math.ceil(n * percentile);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i].sum();
+        if (seen >= threshold) {
+          return Math.min((1L << i) - 1, max.get());
+        }
+      }
+      return max.get();
+    }
+  }
+
+  // 全メトリクスの現在値。ヒストグラムは件数・平均・p50・p99・最大に展開する
+  public Map<String, Object> snapshot() {
+    Map<String, Object> values = new TreeMap<>();
+    counters.forEach((name, counter) -> values.put(name, counter.get()));
+    gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+    histograms.forEach((name, histogram) -> {
+      values.put(name + ".count", histogram.getCount());
+      values.put(name + ".meanMicros", histogram.getMean());
+      values.put(name + ".p50Micros", histogram.getPercentile(0.50));
+      values.put(name + ".p99Micros", histogram.getPercentile(0.99));
+      values.put(name + ".maxMicros", histogram.getMax());
+    });
+    return values;
+  }
+
+  public void registerMBean() {
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      }
+    } catch (Exception e) {
+      Log.warn("メトリクスをJMXに登録できませんでした: ", e.getMessage());
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Object value = snapshot().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Object> values = snapshot();
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      Object value = values.get(attribute);
+      if (value != null) {
+        list.add(new Attribute(attribute, value));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("読み取り専用です: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  // 登録されたメトリクスは実行中に増えるので、参照のたびに属性一覧を作り直す
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Map<String, Object> values = snapshot();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+    int i = 0;
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+          entry.getKey(), true, false, false);
+    }
+    return new MBeanInfo(Metrics.class.getName(), "Clipper metrics", attributes, null,
+        new MBeanOperationInfo[0], null);
+  }
+}